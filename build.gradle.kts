@@ -20,6 +20,19 @@ intellij {
     plugins.set(listOf("java"/* Plugin Dependencies */))
 }
 
+// Benchmarks run on the IntelliJ test fixture, like tests would, but are not part of the regular build
+sourceSets {
+    create("benchmark") {
+        compileClasspath += sourceSets.main.get().output + sourceSets.test.get().compileClasspath
+        runtimeClasspath += output + compileClasspath + sourceSets.test.get().runtimeClasspath
+    }
+}
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+    "benchmarkImplementation"("junit:junit:4.13.2")
+}
+
 tasks {
     // Set the JVM compatibility versions
     withType<JavaCompile> {
@@ -43,4 +56,17 @@ tasks {
     publishPlugin {
         token.set(System.getenv("PUBLISH_TOKEN"))
     }
+
+    // ./gradlew benchmark -Pbenchmark.scale=4
+    register<Test>("benchmark") {
+        description = "Measures scan and inspection performance on generated projects."
+        group = "verification"
+        testClassesDirs = sourceSets["benchmark"].output.classesDirs
+        classpath = sourceSets["benchmark"].runtimeClasspath
+        maxHeapSize = "2g"
+        systemProperty("benchmark.output", layout.buildDirectory.file("benchmark/results.jsonl").get().asFile.path)
+        systemProperty("benchmark.scale", providers.gradleProperty("benchmark.scale").getOrElse("1"))
+        // Timings are never up to date
+        outputs.upToDateWhen { false }
+    }
 }
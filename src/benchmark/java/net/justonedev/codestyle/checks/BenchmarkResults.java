@@ -0,0 +1,86 @@
+package net.justonedev.codestyle.checks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Appends benchmark results as JSON lines to {@code build/benchmark/results.jsonl}, or the file given by the
+ * {@code benchmark.output} system property. Every line holds one measurement, so runs can be compared over time.
+ */
+public final class BenchmarkResults {
+
+    private BenchmarkResults() {
+    }
+
+    /**
+     * Forgets the peak heap usage so far, so {@link #peakHeapBytes()} only covers what follows.
+     */
+    public static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Sum of the peak usage of all heap pools since the last {@link #resetPeakHeap()}.
+     */
+    public static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Writes one measurement.
+     *
+     * @param benchmark Name of the benchmark.
+     * @param config    Config of the generated project.
+     * @param metrics   Metric name → value, numbers only.
+     */
+    public static void write(String benchmark, SyntheticProjectGenerator.Config config, Map<String, ? extends Number> metrics) {
+        StringBuilder line = new StringBuilder()
+                .append("{\"benchmark\":\"").append(benchmark).append('"')
+                .append(",\"timestamp\":\"").append(Instant.now()).append('"')
+                .append(",\"config\":").append(config.toJson())
+                .append(",\"metrics\":{");
+        String separator = "";
+        for (Map.Entry<String, ? extends Number> metric : metrics.entrySet()) {
+            line.append(separator).append('"').append(metric.getKey()).append("\":").append(metric.getValue());
+            separator = ",";
+        }
+        line.append("}}\n");
+
+        Path output = Path.of(System.getProperty("benchmark.output", "build/benchmark/results.jsonl"));
+        try {
+            Files.createDirectories(output.toAbsolutePath().getParent());
+            Files.writeString(output, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write benchmark results to " + output, e);
+        }
+        System.out.print(line);
+    }
+
+    /**
+     * Small helper to build metrics in insertion order.
+     */
+    public static Map<String, Number> metrics() {
+        return new LinkedHashMap<>();
+    }
+}
@@ -0,0 +1,158 @@
+package net.justonedev.codestyle.checks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates Java sources for benchmarks. The same config always generates the same sources.
+ * <p>
+ * Classes are spread over packages {@code bench.p0, bench.p1, ...} and named {@code C<package>_<index>}.
+ * Every class has the same method names, so subclasses override methods of their superclasses.
+ * Method bodies call methods and read fields of the own class, of classes in the same package and of classes in
+ * {@code fanOut} other packages, which gives the scan a mix of private, package-private and public results.
+ */
+public class SyntheticProjectGenerator {
+
+    /**
+     * @param name              Name of the config, written to the results.
+     * @param packages          Number of packages.
+     * @param classesPerPackage Number of classes in each package.
+     * @param methodsPerClass   Number of methods in each class, a quarter of that are fields.
+     * @param inheritanceDepth  Length of the extends chains within a package, 0 for no inheritance.
+     * @param fanOut            Number of other packages each package calls into.
+     * @param callsPerMethod    Number of calls and field reads in each method body.
+     * @param seed              Seed for all random choices.
+     */
+    public record Config(String name,
+                         int packages,
+                         int classesPerPackage,
+                         int methodsPerClass,
+                         int inheritanceDepth,
+                         int fanOut,
+                         int callsPerMethod,
+                         long seed) {
+
+        public int classCount() {
+            return packages * classesPerPackage;
+        }
+
+        /**
+         * The same shape with {@code factor} times as many packages.
+         */
+        public Config scaled(int factor) {
+            return new Config(name, packages * factor, classesPerPackage, methodsPerClass,
+                    inheritanceDepth, Math.min(fanOut, packages * factor - 1), callsPerMethod, seed);
+        }
+
+        public String toJson() {
+            return "{\"name\":\"" + name + "\",\"packages\":" + packages
+                    + ",\"classesPerPackage\":" + classesPerPackage
+                    + ",\"methodsPerClass\":" + methodsPerClass
+                    + ",\"inheritanceDepth\":" + inheritanceDepth
+                    + ",\"fanOut\":" + fanOut
+                    + ",\"callsPerMethod\":" + callsPerMethod
+                    + ",\"seed\":" + seed + "}";
+        }
+    }
+
+    private final Config config;
+    private final Random random;
+
+    public SyntheticProjectGenerator(Config config) {
+        this.config = config;
+        this.random = new Random(config.seed());
+    }
+
+    /**
+     * Returns relative path → file content of all classes.
+     */
+    public Map<String, String> generate() {
+        Map<String, String> files = new LinkedHashMap<>();
+        for (int pkg = 0; pkg < config.packages(); pkg++) {
+            for (int index = 0; index < config.classesPerPackage(); index++) {
+                files.put(path(pkg, className(pkg, index)), generateClass(pkg, index, config.methodsPerClass()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns a single class with the given number of methods in package {@code bench.p0}, calling into the
+     * generated project, e.g. to measure highlighting of a large file.
+     */
+    public Map.Entry<String, String> generateLargeClass(String name, int methods) {
+        String content = generateClass(0, -1, methods).replace("class " + className(0, -1), "class " + name);
+        return Map.entry(path(0, name), content);
+    }
+
+    private String generateClass(int pkg, int index, int methods) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(packageName(pkg)).append(";\n\n");
+        sb.append("public class ").append(className(pkg, index));
+        int depth = config.inheritanceDepth();
+        if (depth > 0 && index > 0 && index % (depth + 1) != 0) {
+            sb.append(" extends ").append(className(pkg, index - 1));
+        }
+        sb.append(" {\n");
+
+        for (int field = 0; field < Math.max(1, methods / 4); field++) {
+            sb.append("    ").append(randomVisibility()).append("int f").append(field).append(" = ").append(field).append(";\n");
+        }
+        sb.append('\n');
+        for (int method = 0; method < methods; method++) {
+            sb.append("    ").append(randomVisibility()).append("int m").append(method).append("(int x) {\n");
+            sb.append("        int result = x;\n");
+            for (int call = 0; call < config.callsPerMethod(); call++) {
+                sb.append("        result += ").append(randomCall(pkg, methods)).append(";\n");
+            }
+            sb.append("        return result;\n");
+            sb.append("    }\n\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private String randomCall(int pkg, int methods) {
+        int roll = random.nextInt(10);
+        String target;
+        int targetMethods;
+        if (roll < 3) {
+            // Own class, only calls existing methods of this class
+            target = "this";
+            targetMethods = methods;
+        } else {
+            int targetPackage = roll < 7 || config.fanOut() == 0
+                    ? pkg
+                    : (pkg + 1 + random.nextInt(config.fanOut())) % config.packages();
+            target = "new " + packageName(targetPackage) + "."
+                    + className(targetPackage, random.nextInt(config.classesPerPackage())) + "()";
+            targetMethods = config.methodsPerClass();
+        }
+        if (random.nextInt(5) == 0) {
+            return target + ".f" + random.nextInt(Math.max(1, targetMethods / 4));
+        }
+        return target + ".m" + random.nextInt(targetMethods) + "(x)";
+    }
+
+    private String randomVisibility() {
+        // Mostly public, since that is what the scan is looking for
+        return switch (random.nextInt(6)) {
+            case 0 -> "protected ";
+            case 1 -> "";
+            default -> "public ";
+        };
+    }
+
+    private static String packageName(int pkg) {
+        return "bench.p" + pkg;
+    }
+
+    private static String className(int pkg, int index) {
+        return index < 0 ? "Large" : "C" + pkg + "_" + index;
+    }
+
+    private static String path(int pkg, String className) {
+        return packageName(pkg).replace('.', '/') + "/" + className + ".java";
+    }
+}
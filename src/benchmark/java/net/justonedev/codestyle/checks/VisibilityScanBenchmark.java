@@ -0,0 +1,173 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.searches.AllClassesSearch;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the scan and the inspection on generated projects, see {@link SyntheticProjectGenerator}.
+ * Run with {@code ./gradlew benchmark}, results end up in {@code build/benchmark/results.jsonl}.
+ * <p>
+ * The {@code benchmark.scale} system property multiplies the number of packages of every config.
+ */
+public class VisibilityScanBenchmark extends LightJavaCodeInsightFixtureTestCase {
+
+    private static final SyntheticProjectGenerator.Config BALANCED =
+            new SyntheticProjectGenerator.Config("balanced", 8, 25, 12, 3, 2, 4, 1);
+    private static final SyntheticProjectGenerator.Config WIDE =
+            new SyntheticProjectGenerator.Config("wide", 32, 10, 8, 0, 16, 3, 2);
+    private static final SyntheticProjectGenerator.Config DEEP =
+            new SyntheticProjectGenerator.Config("deep", 4, 48, 8, 12, 1, 3, 3);
+    private static final SyntheticProjectGenerator.Config DENSE =
+            new SyntheticProjectGenerator.Config("dense", 8, 20, 12, 2, 4, 16, 4);
+
+    private static final int SAMPLED_MEMBERS = 200;
+    private static final int LARGE_FILE_METHODS = 2000;
+
+    public void testFullScanBalanced() {
+        benchmarkScan(BALANCED);
+    }
+
+    public void testFullScanWide() {
+        benchmarkScan(WIDE);
+    }
+
+    public void testFullScanDeep() {
+        benchmarkScan(DEEP);
+    }
+
+    public void testFullScanDense() {
+        benchmarkScan(DENSE);
+    }
+
+    public void testMemberAnalysis() {
+        SyntheticProjectGenerator.Config config = BALANCED.scaled(scale());
+        addFiles(new SyntheticProjectGenerator(config).generate());
+
+        List<PsiMember> members = new ArrayList<>();
+        for (PsiClass psiClass : AllClassesSearch.search(GlobalSearchScope.projectScope(getProject()), getProject()).findAll()) {
+            members.addAll(MinimalVisibilityCheck.getAnalyzedMembers(psiClass));
+        }
+        // Every n-th member, so all packages and member kinds are part of the sample
+        int step = Math.max(1, members.size() / SAMPLED_MEMBERS);
+        List<Long> timings = new ArrayList<>();
+        BenchmarkResults.resetPeakHeap();
+        for (int i = 0; i < members.size(); i += step) {
+            long start = System.nanoTime();
+            MinimalVisibilityCheck.analyzeMemberUsage(members.get(i), getProject());
+            timings.add(System.nanoTime() - start);
+        }
+
+        long[] sorted = timings.stream().mapToLong(Long::longValue).sorted().toArray();
+        Map<String, Number> metrics = BenchmarkResults.metrics();
+        metrics.put("members", sorted.length);
+        metrics.put("meanMicros", Arrays.stream(sorted).average().orElse(0) / 1000);
+        metrics.put("medianMicros", sorted[sorted.length / 2] / 1000);
+        metrics.put("p95Micros", sorted[(int) (sorted.length * 0.95)] / 1000);
+        metrics.put("maxMicros", sorted[sorted.length - 1] / 1000);
+        metrics.put("peakHeapBytes", BenchmarkResults.peakHeapBytes());
+        BenchmarkResults.write("memberAnalysis", config, metrics);
+    }
+
+    public void testLargeFileHighlighting() {
+        SyntheticProjectGenerator.Config config = BALANCED.scaled(scale());
+        SyntheticProjectGenerator generator = new SyntheticProjectGenerator(config);
+        addFiles(generator.generate());
+        Map.Entry<String, String> largeClass = generator.generateLargeClass("Large", LARGE_FILE_METHODS);
+        PsiFile largeFile = myFixture.addFileToProject(largeClass.getKey(), largeClass.getValue());
+
+        myFixture.enableInspections(new MinimalVisibilityInspection());
+        myFixture.configureFromExistingVirtualFile(largeFile.getVirtualFile());
+
+        BenchmarkResults.resetPeakHeap();
+        long start = System.nanoTime();
+        int problems = myFixture.doHighlighting().size();
+        long coldMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Nothing changed, so this is what re-highlighting costs with the per-member cache
+        start = System.nanoTime();
+        myFixture.doHighlighting();
+        long warmMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Map<String, Number> metrics = BenchmarkResults.metrics();
+        metrics.put("methods", LARGE_FILE_METHODS);
+        metrics.put("highlights", problems);
+        metrics.put("coldMillis", coldMillis);
+        metrics.put("warmMillis", warmMillis);
+        metrics.put("peakHeapBytes", BenchmarkResults.peakHeapBytes());
+        BenchmarkResults.write("largeFileHighlighting", config, metrics);
+    }
+
+    private void benchmarkScan(SyntheticProjectGenerator.Config baseConfig) {
+        SyntheticProjectGenerator.Config config = baseConfig.scaled(scale());
+        addFiles(new SyntheticProjectGenerator(config).generate());
+
+        BenchmarkResults.resetPeakHeap();
+        ScanStatistics stats = new ScanStatistics();
+        long start = System.nanoTime();
+        int results = runScan(stats);
+        long coldMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long peakHeap = BenchmarkResults.peakHeapBytes();
+
+        // Nothing changed, so the second scan only shows the cost of the incremental bookkeeping
+        start = System.nanoTime();
+        runScan(new ScanStatistics());
+        long warmMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Map<String, Number> metrics = BenchmarkResults.metrics();
+        metrics.put("classes", config.classCount());
+        metrics.put("results", results);
+        metrics.put("coldScanMillis", coldMillis);
+        metrics.put("warmScanMillis", warmMillis);
+        metrics.put("trivialMembers", stats.getTrivialCount());
+        for (UsageSearchPrefilter.Tier tier : UsageSearchPrefilter.Tier.values()) {
+            metrics.put("tier" + tier.name(), stats.getTierCount(tier));
+        }
+        for (ScanStatistics.Phase phase : ScanStatistics.Phase.values()) {
+            metrics.put(phase.getDisplayName() + "Millis", TimeUnit.NANOSECONDS.toMillis(stats.getPhaseNanos(phase)));
+        }
+        metrics.put("referencesExamined", stats.getReferencesExamined());
+        metrics.put("skippedMembers", stats.getSkippedCount());
+        metrics.put("readActionWaitMillis", TimeUnit.NANOSECONDS.toMillis(stats.getReadActionWaitNanos()));
+        metrics.put("peakHeapBytes", peakHeap);
+        BenchmarkResults.write("fullScan", config, metrics);
+    }
+
+    /**
+     * Runs the scan like the tool window does, on a background thread without a read action.
+     *
+     * @return Number of results.
+     */
+    private int runScan(ScanStatistics stats) {
+        ProgressIndicator indicator = new EmptyProgressIndicator();
+        List<VisibilityResult> results = new ArrayList<>();
+        Future<?> future = ApplicationManager.getApplication().executeOnPooledThread(() ->
+                ProgressManager.getInstance().runProcess(() -> results.addAll(MinimalVisibilityScanHelper.runScan(
+                        getProject(), VisibilitySettings.DEFAULT, ScanOptions.DEFAULT, stats, indicator)), indicator));
+        PlatformTestUtil.waitForFuture(future, TimeUnit.MINUTES.toMillis(30));
+        return results.size();
+    }
+
+    private void addFiles(Map<String, String> files) {
+        files.forEach((path, content) -> myFixture.addFileToProject(path, content));
+    }
+
+    private static int scale() {
+        return Integer.parseInt(System.getProperty("benchmark.scale", "1"));
+    }
+}
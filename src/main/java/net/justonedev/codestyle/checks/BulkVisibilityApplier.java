@@ -0,0 +1,160 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.impl.source.PostprocessReformattingAspect;
+import com.intellij.psi.util.PsiModificationTracker;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Lowers the visibility of many scan results at once, e.g. all rows of the tool window.
+ * <p>
+ * Results are applied in chunks, each in its own write command, so the IDE stays responsive in between.
+ * Every result is checked again right before its chunk is written, and skipped if the member was changed or its
+ * usages no longer allow the suggested visibility. A chunk that keeps changing between check and write, e.g. while
+ * the user types, is skipped after a few attempts. All chunks share one command group, so a single undo reverts
+ * the whole operation, also if it was cancelled halfway.
+ */
+public class BulkVisibilityApplier extends Task.Backgroundable {
+
+    private static final int CHUNK_SIZE = 100;
+    static final int MAX_ATTEMPTS = 5;
+    private static final String COMMAND_NAME = "Lower Visibility";
+
+    /**
+     * What was done once the task is finished, cancelled or failed.
+     *
+     * @param applied Results whose visibility was lowered.
+     * @param skipped Number of results that were no longer valid, or could not be written before the PSI changed.
+     */
+    public record Outcome(List<VisibilityResult> applied, int skipped) {
+    }
+
+    /**
+     * Results of a chunk that are still valid, and the PSI modification count they were checked at.
+     */
+    private record CheckedChunk(List<VisibilityResult> results, long modificationCount) {
+    }
+
+    private final List<VisibilityResult> results;
+    private final VisibilitySettings settings;
+    private final Consumer<Outcome> onFinished;
+    private final Object commandGroup = new Object();
+    private final List<VisibilityResult> applied = new ArrayList<>();
+    private int skipped = 0;
+
+    /**
+     * @param results    Results to apply, in the order they are applied.
+     * @param settings   Settings of the scan that found the results, used to check them again.
+     * @param onFinished Called on the EDT with what was applied, also if the task was cancelled.
+     */
+    public BulkVisibilityApplier(Project project,
+                                 List<VisibilityResult> results,
+                                 VisibilitySettings settings,
+                                 Consumer<Outcome> onFinished) {
+        super(project, "Lowering visibility", true);
+        this.results = List.copyOf(results);
+        this.settings = settings;
+        this.onFinished = onFinished;
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+        indicator.setIndeterminate(false);
+        int index = 0;
+        int attempts = 0;
+        while (index < results.size()) {
+            indicator.checkCanceled();
+            List<VisibilityResult> chunk = results.subList(index, Math.min(index + CHUNK_SIZE, results.size()));
+
+            // 1. Check the chunk again, usages may have changed since the scan
+            CheckedChunk checked = ReadAction.nonBlocking(() -> check(chunk))
+                    .inSmartMode(myProject)
+                    .wrapProgress(indicator)
+                    .executeSynchronously();
+
+            // 2. Write it, unless anything changed after the check. Then the chunk is just checked again.
+            boolean[] written = {false};
+            ApplicationManager.getApplication().invokeAndWait(
+                    () -> written[0] = write(checked), ModalityState.defaultModalityState());
+            if (written[0]) {
+                skipped += chunk.size() - checked.results().size();
+            } else if (++attempts < MAX_ATTEMPTS) {
+                continue;
+            } else {
+                skipped += chunk.size();
+            }
+            attempts = 0;
+            index += chunk.size();
+            indicator.setText2(index + " / " + results.size() + " members");
+            indicator.setFraction((double) index / results.size());
+        }
+    }
+
+    private CheckedChunk check(List<VisibilityResult> chunk) {
+        long modificationCount = getModificationCount();
+        List<VisibilityResult> valid = new ArrayList<>();
+        for (VisibilityResult result : chunk) {
+            ProgressManager.checkCanceled();
+            PsiMember member = result.member();
+            if (member == null || !member.isValid()
+                    || Visibility.fromModifierListOwner(member) != result.oldVisibility()) {
+                continue; // deleted or changed by hand
+            }
+            VisibilityInfo info = MinimalVisibilityScanService.getInstance(myProject).analyzeMember(member);
+            if (info.canLowerVisibility(settings) && info.getSuggestedLevel(settings) == result.newVisibility()) {
+                valid.add(result);
+            }
+        }
+        return new CheckedChunk(valid, modificationCount);
+    }
+
+    /**
+     * Applies a checked chunk in one write command. Must be called on the EDT.
+     *
+     * @return false if the PSI changed since the chunk was checked, then nothing is written.
+     */
+    private boolean write(CheckedChunk chunk) {
+        if (getModificationCount() != chunk.modificationCount()) {
+            return false;
+        }
+        if (chunk.results().isEmpty()) {
+            return true;
+        }
+        WriteCommandAction.writeCommandAction(myProject)
+                .withName(COMMAND_NAME)
+                .withGroupId(commandGroup)
+                .withGlobalUndo()
+                .run(() -> PostprocessReformattingAspect.getInstance(myProject).postponeFormattingInside(() -> {
+                    // Formatting and syncing the documents happens once for the whole chunk, when the command ends
+                    for (VisibilityResult result : chunk.results()) {
+                        result.newVisibility().applyTo(result.member());
+                    }
+                }));
+        applied.addAll(chunk.results());
+        return true;
+    }
+
+    /**
+     * The PSI modification count a chunk is checked at, and compared to right before it is written.
+     */
+    long getModificationCount() {
+        return PsiModificationTracker.getInstance(myProject).getModificationCount();
+    }
+
+    @Override
+    public void onFinished() {
+        onFinished.accept(new Outcome(List.copyOf(applied), skipped));
+    }
+}
@@ -0,0 +1,353 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.execution.util.ExecUtil;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.lang.java.JavaLanguage;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.VcsRoot;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.JavaRecursiveElementWalkingVisitor;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.PsiJavaCodeReferenceElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiNewExpression;
+import com.intellij.psi.PsiTypeParameter;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiShortNamesCache;
+import com.intellij.psi.util.PsiUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Limits a scan to what a change can affect: the members declared in the changed files, and the members
+ * referenced from them, since their usages may have changed.
+ * <p>
+ * References are resolved, so a call of {@code get} only brings in the {@code get} it calls, and its overloads.
+ * Only references that don't resolve, and names the files referenced before they changed, stand for every member
+ * with that name.
+ * <p>
+ * Changed files are the local changes, plus the files committed since the merge base with a base revision,
+ * as {@code git diff base...HEAD} reports them. What modified and deleted files referenced at the base revision is
+ * compared with what they reference now, so a member whose last caller was removed is scanned as well.
+ */
+public class ChangedFilesScope {
+    private static final String GIT = "Git";
+
+    private final Set<VirtualFile> changedFiles;
+    private final Set<String> memberKeys;
+    private final Set<String> names;
+    private final List<PsiClass> classes;
+
+    private ChangedFilesScope(Set<VirtualFile> changedFiles,
+                              Set<String> memberKeys,
+                              Set<String> names,
+                              List<PsiClass> classes) {
+        this.changedFiles = changedFiles;
+        this.memberKeys = memberKeys;
+        this.names = names;
+        this.classes = classes;
+    }
+
+    /**
+     * The changes of a project since a base revision.
+     *
+     * @param files        Java files that were added or modified and still exist.
+     * @param removedNames Names the modified and deleted files referenced at the base revision, but don't anymore.
+     *                     Members with these names may have lost their last caller.
+     */
+    public record Changes(Set<VirtualFile> files, Set<String> removedNames) {
+    }
+
+    /**
+     * A modified or deleted Java file as it was before the change.
+     *
+     * @param file The file now, null if it was deleted.
+     */
+    private record Before(VirtualFile file, String text) {
+    }
+
+    /**
+     * Finds the changes of the project. Runs git and waits for smart mode, so must not be called on the EDT.
+     *
+     * @param baseRevision Branch, tag or commit to compare against, or empty for local changes only.
+     * @throws ExecutionException If git could not be run, or does not know the revision.
+     */
+    public static Changes findChanges(Project project, String baseRevision) throws ExecutionException {
+        Set<VirtualFile> files = new LinkedHashSet<>();
+        List<Before> befores = new ArrayList<>();
+
+        // 1. Local changes, also the ones that are not added to the VCS yet
+        ChangeListManager changeListManager = ChangeListManager.getInstance(project);
+        for (Change change : changeListManager.getAllChanges()) {
+            ContentRevision after = change.getAfterRevision();
+            VirtualFile file = after != null ? after.getFile().getVirtualFile() : null;
+            if (file != null) {
+                files.add(file);
+            }
+            ContentRevision before = change.getBeforeRevision();
+            if (before != null && before.getFile().getFileType() == JavaFileType.INSTANCE) {
+                try {
+                    String text = before.getContent();
+                    if (text != null) {
+                        befores.add(new Before(file, text));
+                    }
+                } catch (VcsException e) {
+                    throw new ExecutionException("Could not read " + before.getFile().getPath() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        for (FilePath path : changeListManager.getUnversionedFilesPaths()) {
+            if (path.getVirtualFile() != null) {
+                files.add(path.getVirtualFile());
+            }
+        }
+
+        // 2. Everything committed since the branch left the base revision
+        if (!baseRevision.isBlank()) {
+            List<VcsRoot> gitRoots = new ArrayList<>();
+            for (VcsRoot root : ProjectLevelVcsManager.getInstance(project).getAllVcsRoots()) {
+                if (root.getVcs() != null && GIT.equals(root.getVcs().getName())) {
+                    gitRoots.add(root);
+                }
+            }
+            if (gitRoots.isEmpty()) {
+                throw new ExecutionException("Comparing against " + baseRevision + " needs a Git repository");
+            }
+            for (VcsRoot root : gitRoots) {
+                addCommittedChanges(root.getPath(), baseRevision, files, befores);
+            }
+        }
+
+        files.removeIf(file -> !file.isValid() || file.getFileType() != JavaFileType.INSTANCE);
+        Set<String> removedNames = ReadAction.nonBlocking(() -> findRemovedNames(project, befores))
+                .inSmartMode(project)
+                .executeSynchronously();
+        return new Changes(files, removedNames);
+    }
+
+    private static void addCommittedChanges(VirtualFile root,
+                                            String baseRevision,
+                                            Set<VirtualFile> files,
+                                            List<Before> befores) throws ExecutionException {
+        // base...HEAD compares against the merge base, so the base contents are taken from there as well
+        String mergeBase = git(root, "merge-base", baseRevision, "HEAD").trim();
+        String[] fields = git(root, "diff", "--name-status", "-z", mergeBase, "HEAD").split("\0");
+        int i = 0;
+        while (i < fields.length) {
+            String status = fields[i++];
+            if (status.isEmpty()) continue;
+            // Renames and copies list the old path first
+            boolean twoPaths = status.startsWith("R") || status.startsWith("C");
+            String oldPath = fields[i++];
+            String newPath = twoPaths ? fields[i++] : oldPath;
+            VirtualFile file = status.startsWith("D") ? null : root.findFileByRelativePath(newPath);
+            if (file != null) {
+                files.add(file);
+            }
+            // Added files and the sources of copies referenced nothing that is gone now
+            boolean changedOld = status.startsWith("M") || status.startsWith("D") || status.startsWith("R");
+            if (changedOld && oldPath.endsWith("." + JavaFileType.DEFAULT_EXTENSION)) {
+                befores.add(new Before(file, git(root, "show", mergeBase + ":" + oldPath)));
+            }
+        }
+    }
+
+    private static String git(VirtualFile root, String... parameters) throws ExecutionException {
+        GeneralCommandLine command = new GeneralCommandLine("git")
+                .withParameters(parameters)
+                .withWorkDirectory(root.getPath())
+                .withCharset(StandardCharsets.UTF_8);
+        ProcessOutput output = ExecUtil.execAndGetOutput(command);
+        if (output.getExitCode() != 0) {
+            throw new ExecutionException("git " + String.join(" ", parameters) + " failed: " + output.getStderr().trim());
+        }
+        return output.getStdout();
+    }
+
+    /**
+     * The names the files referenced before, minus the ones they still reference. Must be called inside a read
+     * action in smart mode.
+     */
+    private static Set<String> findRemovedNames(Project project, List<Before> befores) {
+        PsiFileFactory fileFactory = PsiFileFactory.getInstance(project);
+        Set<String> removedNames = new HashSet<>();
+        for (Before before : befores) {
+            Set<String> names = new HashSet<>();
+            fileFactory.createFileFromText("Before.java", JavaLanguage.INSTANCE, before.text())
+                    .accept(new JavaRecursiveElementWalkingVisitor() {
+                        @Override
+                        public void visitReferenceElement(PsiJavaCodeReferenceElement reference) {
+                            super.visitReferenceElement(reference);
+                            if (reference.getReferenceName() != null) {
+                                names.add(reference.getReferenceName());
+                            }
+                        }
+                    });
+            if (before.file() != null && before.file().isValid()) {
+                names.removeAll(MemberReferenceIndex.getReferencedNames(before.file(), project));
+            }
+            removedNames.addAll(names);
+        }
+        return removedNames;
+    }
+
+    /**
+     * Collects the classes to scan for the given changed files. Must be called inside a read action.
+     *
+     * @param removedNames Names the files referenced before they changed, the index only knows the current ones.
+     */
+    public static ChangedFilesScope of(Project project,
+                                       Set<VirtualFile> changedFiles,
+                                       Set<String> removedNames,
+                                       GlobalSearchScope scope) {
+        PsiManager psiManager = PsiManager.getInstance(project);
+        Set<String> memberKeys = new HashSet<>();
+        Set<String> names = new HashSet<>(removedNames);
+        Set<PsiClass> classes = new LinkedHashSet<>();
+
+        // 1. All classes of the changed files, and the members their references resolve to
+        for (VirtualFile file : changedFiles) {
+            if (!file.isValid() || !scope.contains(file)
+                    || !(psiManager.findFile(file) instanceof PsiJavaFile javaFile)) continue;
+            addClasses(classes, javaFile.getClasses());
+            javaFile.accept(new JavaRecursiveElementWalkingVisitor() {
+                @Override
+                public void visitReferenceElement(PsiJavaCodeReferenceElement reference) {
+                    super.visitReferenceElement(reference);
+                    PsiElement target = reference.resolve();
+                    if (target == null) {
+                        // Ambiguous or broken, may be meant for any member with the name
+                        if (reference.getReferenceName() != null) {
+                            names.add(reference.getReferenceName());
+                        }
+                    } else if (target instanceof PsiMember member) {
+                        addTarget(classes, memberKeys, member, scope);
+                    }
+                }
+
+                @Override
+                public void visitNewExpression(PsiNewExpression expression) {
+                    super.visitNewExpression(expression);
+                    PsiMethod constructor = expression.resolveConstructor();
+                    if (constructor != null) {
+                        addTarget(classes, memberKeys, constructor, scope);
+                    }
+                }
+            });
+        }
+
+        // 2. The classes declaring a member with one of the names that could not be resolved
+        PsiShortNamesCache namesCache = PsiShortNamesCache.getInstance(project);
+        for (String name : names) {
+            for (PsiMethod method : namesCache.getMethodsByName(name, scope)) {
+                addContainingClass(classes, method);
+            }
+            for (PsiField field : namesCache.getFieldsByName(name, scope)) {
+                addContainingClass(classes, field);
+            }
+            for (PsiClass psiClass : namesCache.getClassesByName(name, scope)) {
+                if (!PsiUtil.isLocalOrAnonymousClass(psiClass)) {
+                    classes.add(psiClass);
+                }
+            }
+        }
+        return new ChangedFilesScope(Set.copyOf(changedFiles), memberKeys, names, new ArrayList<>(classes));
+    }
+
+    /**
+     * Adds a member a changed file references, if it is declared in the scope. A call may have moved from one overload
+     * to another, so all methods of the class with the same name are added as well.
+     */
+    private static void addTarget(Set<PsiClass> classes,
+                                  Set<String> memberKeys,
+                                  PsiMember target,
+                                  GlobalSearchScope scope) {
+        VirtualFile file = target.getContainingFile() != null ? target.getContainingFile().getVirtualFile() : null;
+        if (file == null || !scope.contains(file) || target instanceof PsiTypeParameter) return;
+        if (target instanceof PsiClass psiClass) {
+            if (!PsiUtil.isLocalOrAnonymousClass(psiClass)) {
+                classes.add(psiClass);
+                memberKeys.add(MemberKey.of(psiClass));
+            }
+            return;
+        }
+        PsiClass containingClass = target.getContainingClass();
+        if (containingClass == null || PsiUtil.isLocalOrAnonymousClass(containingClass)) return;
+        classes.add(containingClass);
+        memberKeys.add(MemberKey.of(target));
+        if (target instanceof PsiMethod method) {
+            for (PsiMethod overload : containingClass.findMethodsByName(method.getName(), false)) {
+                memberKeys.add(MemberKey.of(overload));
+            }
+        }
+    }
+
+    /**
+     * Adds the classes and their nested classes, like {@link com.intellij.psi.search.searches.AllClassesSearch}
+     * finds them in a full scan. Local and anonymous classes are left out there as well.
+     */
+    private static void addClasses(Set<PsiClass> result, PsiClass[] classes) {
+        for (PsiClass psiClass : classes) {
+            result.add(psiClass);
+            addClasses(result, psiClass.getInnerClasses());
+        }
+    }
+
+    private static void addContainingClass(Set<PsiClass> classes, PsiMember member) {
+        PsiClass containingClass = member.getContainingClass();
+        if (containingClass != null && !PsiUtil.isLocalOrAnonymousClass(containingClass)) {
+            classes.add(containingClass);
+        }
+    }
+
+    /**
+     * Classes that have at least one member in the scope.
+     */
+    public List<PsiClass> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Whether the member is declared in a changed file, or may be referenced from one.
+     */
+    public boolean contains(PsiMember member) {
+        VirtualFile file = member.getContainingFile() != null ? member.getContainingFile().getVirtualFile() : null;
+        return file != null && changedFiles.contains(file)
+                || names.contains(member.getName())
+                || memberKeys.contains(MemberKey.of(member));
+    }
+
+    /**
+     * Whether a row found before may be outdated by a scan of this scope, like {@link #contains}, but without PSI.
+     */
+    public boolean covers(VisibilityResult result) {
+        return changedFiles.contains(result.getVirtualFile())
+                || names.contains(MemberKey.nameOf(result.memberKey()))
+                || memberKeys.contains(result.memberKey());
+    }
+
+    public Set<VirtualFile> getChangedFiles() {
+        return changedFiles;
+    }
+}
@@ -0,0 +1,207 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.psi.PsiAnonymousClass;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiEnumConstant;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.impl.java.stubs.index.JavaStubIndexKeys;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubIndex;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The class hierarchy of a project, taken once per scan.
+ * <p>
+ * Every class gets a dense id, and the transitive subtypes of each class are kept as a bitset,
+ * so subclass checks don't need {@link PsiClass#isInheritor} anymore. The methods that are overridden
+ * anywhere in the project are collected from the overriding side with {@link PsiMethod#findSuperMethods()},
+ * which only walks up, instead of searching the inheritor index for every method with
+ * {@link com.intellij.psi.search.searches.OverridingMethodsSearch}.
+ * <p>
+ * Anonymous classes, local classes and enum constant bodies are part of the snapshot.
+ * Questions about classes that are not part of the snapshot have to be answered from the PSI.
+ */
+public class ClassHierarchySnapshot {
+    private final Map<String, Integer> ids;
+    private final BitSet[] subtypes;
+    private final Set<String> overriddenMethods;
+
+    /**
+     * What a single class contributes to the snapshot.
+     *
+     * @param key               Key of the class, see {@link MemberKey#ofClass}.
+     * @param superKeys         Keys of the direct supertypes.
+     * @param overriddenMethods Keys of the methods that methods of this class override.
+     */
+    public record ClassEntry(String key, List<String> superKeys, Set<String> overriddenMethods) {
+    }
+
+    private ClassHierarchySnapshot(Map<String, Integer> ids, BitSet[] subtypes, Set<String> overriddenMethods) {
+        this.ids = ids;
+        this.subtypes = subtypes;
+        this.overriddenMethods = overriddenMethods;
+    }
+
+    /**
+     * Takes the snapshot of the given classes in one go. Must be called inside a read action.
+     */
+    public static ClassHierarchySnapshot of(Collection<PsiClass> classes, GlobalSearchScope scope) {
+        Builder builder = new Builder();
+        Set<String> localClassOwners = MemberReferenceIndex.getClassesDeclaringLocalClasses(scope);
+        for (PsiClass psiClass : classes) {
+            builder.add(describe(psiClass, scope, localClassOwners));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Describes the class, its anonymous subclasses in the scope and, for a top-level class, the local classes
+     * declared in it. Must be called inside a read action.
+     *
+     * @param localClassOwners Qualified names of the top-level classes declaring local classes, see
+     *                         {@link MemberReferenceIndex#getClassesDeclaringLocalClasses}.
+     */
+    public static List<ClassEntry> describe(PsiClass psiClass, GlobalSearchScope scope, Set<String> localClassOwners) {
+        List<ClassEntry> entries = new ArrayList<>();
+        entries.add(entry(psiClass));
+
+        String name = psiClass.getName();
+        if (name != null && !psiClass.hasModifierProperty(PsiModifier.FINAL)) {
+            // Anonymous classes are indexed under the short name of their base class
+            for (PsiAnonymousClass anonymousClass : StubIndex.getElements(JavaStubIndexKeys.ANONYMOUS_BASEREF,
+                    name, psiClass.getProject(), scope, PsiAnonymousClass.class)) {
+                if (psiClass.equals(anonymousClass.getBaseClassType().resolve())) {
+                    entries.add(entry(anonymousClass));
+                }
+            }
+        }
+        if (psiClass.getContainingClass() == null && localClassOwners.contains(psiClass.getQualifiedName())) {
+            // Local classes are in no stub index, so this loads the AST, but only of classes that declare one
+            for (PsiClass localClass : PsiTreeUtil.findChildrenOfType(psiClass, PsiClass.class)) {
+                if (PsiUtil.isLocalClass(localClass)) {
+                    entries.add(entry(localClass));
+                }
+            }
+        }
+        if (psiClass.isEnum()) {
+            for (PsiField field : psiClass.getFields()) {
+                if (field instanceof PsiEnumConstant constant && constant.getInitializingClass() != null) {
+                    entries.add(entry(constant.getInitializingClass()));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static ClassEntry entry(PsiClass psiClass) {
+        List<String> superKeys = new ArrayList<>();
+        for (PsiClass superClass : psiClass.getSupers()) {
+            superKeys.add(MemberKey.ofClass(superClass));
+        }
+        Set<String> overridden = new HashSet<>();
+        for (PsiMethod method : psiClass.getMethods()) {
+            for (PsiMethod superMethod : method.findSuperMethods()) {
+                overridden.add(MemberKey.of(superMethod));
+            }
+        }
+        return new ClassEntry(MemberKey.ofClass(psiClass), superKeys, overridden);
+    }
+
+    /**
+     * Whether the class is part of the snapshot, i.e. whether {@link #isInheritor} can answer questions about it.
+     */
+    public boolean contains(String classKey) {
+        return ids.containsKey(classKey);
+    }
+
+    /**
+     * Whether the class is a direct or indirect subtype of the base class. Both must be part of the snapshot.
+     */
+    public boolean isInheritor(String classKey, String baseKey) {
+        Integer classId = ids.get(classKey);
+        Integer baseId = ids.get(baseKey);
+        return classId != null && baseId != null && subtypes[baseId].get(classId);
+    }
+
+    /**
+     * Whether any method in the snapshot overrides the method.
+     */
+    public boolean isOverridden(PsiMethod method) {
+        return overriddenMethods.contains(MemberKey.of(method));
+    }
+
+    /**
+     * Collects class entries, possibly from several threads, and builds the snapshot once all are there.
+     */
+    public static class Builder {
+        private final Queue<ClassEntry> entries = new ConcurrentLinkedQueue<>();
+
+        public void add(Collection<ClassEntry> classEntries) {
+            entries.addAll(classEntries);
+        }
+
+        public ClassHierarchySnapshot build() {
+            // 1. Dense ids, an entry that was added twice keeps its first id
+            Map<String, Integer> ids = new HashMap<>();
+            List<ClassEntry> byId = new ArrayList<>();
+            Set<String> overridden = new HashSet<>();
+            for (ClassEntry entry : entries) {
+                if (ids.putIfAbsent(entry.key(), byId.size()) == null) {
+                    byId.add(entry);
+                }
+                overridden.addAll(entry.overriddenMethods());
+            }
+
+            // 2. Direct subtypes, supertypes outside the snapshot (e.g. libraries) are left out
+            List<List<Integer>> directSubtypes = new ArrayList<>();
+            byId.forEach(entry -> directSubtypes.add(new ArrayList<>()));
+            for (int id = 0; id < byId.size(); id++) {
+                for (String superKey : byId.get(id).superKeys()) {
+                    Integer superId = ids.get(superKey);
+                    if (superId != null && superId != id) {
+                        directSubtypes.get(superId).add(id);
+                    }
+                }
+            }
+
+            // 3. Transitive subtypes
+            BitSet[] subtypes = new BitSet[byId.size()];
+            for (int id = 0; id < subtypes.length; id++) {
+                collectSubtypes(id, directSubtypes, subtypes, new BitSet());
+            }
+            return new ClassHierarchySnapshot(ids, subtypes, overridden);
+        }
+
+        private static BitSet collectSubtypes(int id, List<List<Integer>> directSubtypes, BitSet[] subtypes, BitSet visiting) {
+            if (subtypes[id] != null) {
+                return subtypes[id];
+            }
+            BitSet result = new BitSet();
+            // Broken code can have cyclic hierarchies, don't follow them
+            visiting.set(id);
+            for (int subtype : directSubtypes.get(id)) {
+                result.set(subtype);
+                if (!visiting.get(subtype)) {
+                    result.or(collectSubtypes(subtype, directSubtypes, subtypes, visiting));
+                }
+            }
+            visiting.clear(id);
+            subtypes[id] = result;
+            return result;
+        }
+    }
+}
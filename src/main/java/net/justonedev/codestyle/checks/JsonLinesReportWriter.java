@@ -0,0 +1,38 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.project.Project;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes one JSON object per result and line.
+ */
+class JsonLinesReportWriter extends ScanReportWriter {
+
+    JsonLinesReportWriter(Project project, Writer writer) {
+        super(project, writer);
+    }
+
+    @Override
+    protected void writeHeader() {
+        // JSON lines have neither header nor footer
+    }
+
+    @Override
+    protected void writeEntry(Entry entry, boolean first) throws IOException {
+        writer.write("{\"class\":" + quote(entry.className())
+                + ",\"member\":" + quote(entry.memberName())
+                + ",\"kind\":" + quote(entry.kind())
+                + ",\"file\":" + quote(entry.path())
+                + ",\"line\":" + entry.line()
+                + ",\"from\":" + quote(entry.oldVisibility().getVisibility())
+                + ",\"to\":" + quote(entry.newVisibility().getVisibility())
+                + "}\n");
+    }
+
+    @Override
+    protected void writeFooter() {
+        // JSON lines have neither header nor footer
+    }
+}
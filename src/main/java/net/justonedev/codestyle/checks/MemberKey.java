@@ -0,0 +1,118 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiParameter;
+import com.intellij.psi.util.TypeConversionUtil;
+
+import java.util.StringJoiner;
+
+/**
+ * Stable string keys for classes and members, so usage data can be stored without holding on to PSI.
+ */
+public final class MemberKey {
+
+    private MemberKey() {
+    }
+
+    /**
+     * Key of a method: declaring class key, name and erased parameter types,
+     * e.g. {@code com.example.Foo#bar(java.lang.String,int)}.
+     */
+    public static String of(PsiMethod method) {
+        StringJoiner params = new StringJoiner(",", "(", ")");
+        for (PsiParameter parameter : method.getParameterList().getParameters()) {
+            params.add(TypeConversionUtil.erasure(parameter.getType()).getCanonicalText());
+        }
+        return ofClass(method.getContainingClass()) + "#" + method.getName() + params;
+    }
+
+    /**
+     * Key of a member: see {@link #of(PsiMethod)} for methods and constructors, {@link #ofClass} for classes,
+     * and declaring class key and name for fields, e.g. {@code com.example.Foo#count}.
+     */
+    public static String of(PsiMember member) {
+        if (member instanceof PsiMethod method) {
+            return of(method);
+        }
+        if (member instanceof PsiClass psiClass) {
+            return ofClass(psiClass);
+        }
+        if (member instanceof PsiField field) {
+            return ofClass(field.getContainingClass()) + "#" + field.getName();
+        }
+        return ofClass(member.getContainingClass()) + "#" + member.getName();
+    }
+
+    /**
+     * The simple name of the member a key of {@link #of(PsiMember)} stands for, constructors have the name of their
+     * class. Null for local and anonymous classes, which are never referenced by name from another file.
+     */
+    public static String nameOf(String memberKey) {
+        int hash = memberKey.lastIndexOf('#');
+        if (hash >= 0) {
+            int paren = memberKey.indexOf('(', hash);
+            return memberKey.substring(hash + 1, paren >= 0 ? paren : memberKey.length());
+        }
+        return memberKey.startsWith("<") ? null : memberKey.substring(memberKey.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * The class whose subclasses get protected access to the member: the containing class,
+     * or the class itself for top-level classes.
+     */
+    public static PsiClass ownerClass(PsiMember member) {
+        PsiClass containingClass = member.getContainingClass();
+        return containingClass == null && member instanceof PsiClass psiClass ? psiClass : containingClass;
+    }
+
+    /**
+     * Key of the top-level class around the element. Private members are accessible within all of it.
+     */
+    public static String ofTopLevelClass(PsiElement element) {
+        return ofClass(topLevelClass(element));
+    }
+
+    /**
+     * The outermost class around the element, or the element itself if it is a top-level class.
+     */
+    public static PsiClass topLevelClass(PsiElement element) {
+        PsiClass topLevelClass = null;
+        while (element != null && !(element instanceof PsiFile)) {
+            if (element instanceof PsiClass psiClass) {
+                topLevelClass = psiClass;
+            }
+            element = element.getParent();
+        }
+        return topLevelClass;
+    }
+
+    /**
+     * Key of a class: its qualified name, or file and offset for local and anonymous classes.
+     */
+    public static String ofClass(PsiClass psiClass) {
+        if (psiClass == null) {
+            return "<none>";
+        }
+        String qualifiedName = psiClass.getQualifiedName();
+        if (qualifiedName != null) {
+            return qualifiedName;
+        }
+        PsiFile file = psiClass.getContainingFile();
+        String path = file != null && file.getVirtualFile() != null ? file.getVirtualFile().getPath() : "<unknown>";
+        return "<local>" + path + "@" + psiClass.getTextOffset();
+    }
+
+    /**
+     * Package of the file the class is declared in, or null if it is not a Java file.
+     */
+    public static String packageOf(PsiClass psiClass) {
+        PsiFile file = psiClass.getContainingFile();
+        return file instanceof PsiJavaFile javaFile ? javaFile.getPackageName() : null;
+    }
+}
@@ -0,0 +1,298 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.lang.LighterAST;
+import com.intellij.lang.LighterASTNode;
+import com.intellij.lang.LighterASTTokenNode;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.JavaDocTokenType;
+import com.intellij.psi.JavaTokenType;
+import com.intellij.psi.impl.source.JavaLightTreeUtil;
+import com.intellij.psi.impl.source.javadoc.JavaDocElementType;
+import com.intellij.psi.impl.source.tree.ElementType;
+import com.intellij.psi.impl.source.tree.JavaElementType;
+import com.intellij.psi.impl.source.tree.LightTreeUtil;
+import com.intellij.psi.impl.source.tree.RecursiveLighterASTNodeWalkingVisitor;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.indexing.PsiDependentFileContent;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent index of the member names each Java file references, and from which package and classes.
+ * <p>
+ * Indexed are method calls, method references, constructor calls (under the class name), field and variable
+ * references, type references, imports and Javadoc references, i.e. everything a
+ * {@link com.intellij.psi.search.searches.ReferencesSearch} finds in Java files. Nothing is resolved while
+ * indexing, so a name can also stand for a same-named member elsewhere.
+ * The platform keeps the index up to date and persists it, so it is ready right after an IDE restart.
+ * <p>
+ * The index also records which top-level classes declare local classes, see {@link #getClassesDeclaringLocalClasses}.
+ */
+public class MemberReferenceIndex extends FileBasedIndexExtension<String, MemberReferenceIndex.References> {
+
+    public static final ID<String, References> NAME = ID.create("net.justonedev.codestyle.MemberReferenceIndex");
+
+    // Nodes that are a PsiClass, references inside them are recorded under them
+    private static final TokenSet CLASS_TYPES = TokenSet.create(JavaElementType.CLASS, JavaElementType.ANONYMOUS_CLASS,
+            JavaElementType.ENUM_CONSTANT_INITIALIZER, JavaElementType.TYPE_PARAMETER);
+    private static final TokenSet REFERENCE_TYPES = TokenSet.create(JavaElementType.REFERENCE_EXPRESSION,
+            JavaElementType.JAVA_CODE_REFERENCE, JavaElementType.IMPORT_STATIC_REFERENCE);
+
+    /**
+     * Key used for references outside any named class: anonymous and local classes, imports, file level Javadoc.
+     */
+    public static final String UNNAMED_CLASS = "";
+
+    /**
+     * Key under which the top-level classes declaring a local class are recorded, see
+     * {@link #getClassesDeclaringLocalClasses}. Not a Java identifier, so no member name can clash with it.
+     */
+    private static final String LOCAL_CLASSES = "<local class>";
+
+    /**
+     * The references to one member name in one file.
+     *
+     * @param packageName        Package of the file.
+     * @param referencingClasses Qualified names of the classes containing a reference, or {@link #UNNAMED_CLASS}.
+     */
+    public record References(String packageName, Set<String> referencingClasses) {
+    }
+
+    /**
+     * Returns the references to the given name in the Java files of the scope. Must be called inside a read action.
+     */
+    public static Map<VirtualFile, References> getReferences(String name, GlobalSearchScope scope) {
+        Map<VirtualFile, References> result = new HashMap<>();
+        FileBasedIndex.getInstance().processValues(NAME, name, null, (file, references) -> {
+            result.put(file, references);
+            return true;
+        }, scope);
+        return result;
+    }
+
+    /**
+     * Returns the Java files of the scope referencing the given name.
+     */
+    public static Collection<VirtualFile> getReferencingFiles(String name, GlobalSearchScope scope) {
+        return FileBasedIndex.getInstance().getContainingFiles(NAME, name, scope);
+    }
+
+    /**
+     * Returns all member names the file references.
+     */
+    public static Set<String> getReferencedNames(VirtualFile file, Project project) {
+        Set<String> names = new HashSet<>(FileBasedIndex.getInstance().getFileData(NAME, file, project).keySet());
+        names.remove(LOCAL_CLASSES);
+        return names;
+    }
+
+    /**
+     * Returns the qualified names of the top-level classes in the scope that declare a local class somewhere inside.
+     * Local classes are in no stub index, so only these classes need their AST to find them.
+     * Must be called inside a read action.
+     */
+    public static Set<String> getClassesDeclaringLocalClasses(GlobalSearchScope scope) {
+        Set<String> classes = new HashSet<>();
+        FileBasedIndex.getInstance().processValues(NAME, LOCAL_CLASSES, null, (file, references) -> {
+            classes.addAll(references.referencingClasses());
+            return true;
+        }, scope);
+        return classes;
+    }
+
+    @Override
+    public @NotNull ID<String, References> getName() {
+        return NAME;
+    }
+
+    /**
+     * Walks the light tree of the file, which the platform builds once for all light indexers, instead of the PSI.
+     */
+    @Override
+    public @NotNull DataIndexer<String, References, FileContent> getIndexer() {
+        return inputData -> {
+            LighterAST tree = ((PsiDependentFileContent) inputData).getLighterAST();
+            String packageName = packageName(tree);
+            Map<String, Set<String>> referencingClassesByName = new HashMap<>();
+            new RecursiveLighterASTNodeWalkingVisitor(tree) {
+                // Innermost class around the current node and what references in it are recorded under
+                private final Deque<LighterASTNode> classes = new ArrayDeque<>();
+                private final Deque<String> referencingClasses = new ArrayDeque<>();
+
+                @Override
+                public void visitNode(@NotNull LighterASTNode element) {
+                    IElementType type = element.getTokenType();
+                    if (CLASS_TYPES.contains(type)) {
+                        if (isLocalClass(tree, element) && !referencingClasses.isEmpty()) {
+                            // Recorded under the top-level class around it, which is the first one pushed
+                            referencingClassesByName.computeIfAbsent(LOCAL_CLASSES, key -> new HashSet<>())
+                                    .add(referencingClasses.peekLast());
+                        }
+                        referencingClasses.push(referencingClass(tree, element, packageName));
+                        classes.push(element);
+                    } else if (type == JavaElementType.METHOD_CALL_EXPRESSION) {
+                        // this(...) and super(...) call a constructor, which is named like its class
+                        LighterASTNode method = LightTreeUtil.firstChildOfType(
+                                tree, element, JavaElementType.REFERENCE_EXPRESSION);
+                        if (method != null && !classes.isEmpty()) {
+                            if (LightTreeUtil.firstChildOfType(tree, method, JavaTokenType.THIS_KEYWORD) != null) {
+                                add(JavaLightTreeUtil.getNameIdentifierText(tree, classes.peek()));
+                            } else if (LightTreeUtil.firstChildOfType(tree, method, JavaTokenType.SUPER_KEYWORD) != null) {
+                                add(superClassName(tree, classes.peek()));
+                            }
+                        }
+                    } else if (type == JavaElementType.METHOD_REF_EXPRESSION) {
+                        // Foo::new calls a constructor of Foo, Foo itself is visited as a reference
+                        if (LightTreeUtil.firstChildOfType(tree, element, JavaTokenType.NEW_KEYWORD) == null) {
+                            add(JavaLightTreeUtil.getNameIdentifierText(tree, element));
+                        }
+                    } else if (REFERENCE_TYPES.contains(type)) {
+                        // Method calls, field references, class names used as qualifiers, type references in
+                        // declarations, extends lists, new expressions, imports, casts, ...
+                        add(JavaLightTreeUtil.getNameIdentifierText(tree, element));
+                    } else if (type == JavaDocElementType.DOC_METHOD_OR_FIELD_REF) {
+                        LighterASTNode name = LightTreeUtil.firstChildOfType(
+                                tree, element, JavaDocTokenType.DOC_TAG_VALUE_TOKEN);
+                        if (name instanceof LighterASTTokenNode token) {
+                            add(token.getText().toString());
+                        }
+                    }
+                    super.visitNode(element);
+                }
+
+                @Override
+                protected void elementFinished(@NotNull LighterASTNode element) {
+                    if (CLASS_TYPES.contains(element.getTokenType())) {
+                        referencingClasses.pop();
+                        classes.pop();
+                    }
+                }
+
+                private void add(String name) {
+                    if (name == null || name.isEmpty()) return;
+                    referencingClassesByName.computeIfAbsent(name, key -> new HashSet<>())
+                            .add(referencingClasses.isEmpty() ? UNNAMED_CLASS : referencingClasses.peek());
+                }
+            }.visitNode(tree.getRoot());
+
+            Map<String, References> result = new HashMap<>();
+            referencingClassesByName.forEach((name, classes) -> result.put(name, new References(packageName, classes)));
+            return result;
+        };
+    }
+
+    private static String packageName(LighterAST tree) {
+        LighterASTNode statement = LightTreeUtil.firstChildOfType(tree, tree.getRoot(), JavaElementType.PACKAGE_STATEMENT);
+        LighterASTNode reference = statement != null
+                ? LightTreeUtil.firstChildOfType(tree, statement, JavaElementType.JAVA_CODE_REFERENCE)
+                : null;
+        return reference != null
+                ? LightTreeUtil.toFilteredString(tree, reference, ElementType.JAVA_COMMENT_OR_WHITESPACE_BIT_SET)
+                : "";
+    }
+
+    /**
+     * Qualified name of the class, or {@link #UNNAMED_CLASS} for anonymous and local classes and everything in them.
+     */
+    private static String referencingClass(LighterAST tree, LighterASTNode classNode, String packageName) {
+        String name = classNode.getTokenType() == JavaElementType.CLASS
+                ? JavaLightTreeUtil.getNameIdentifierText(tree, classNode)
+                : null;
+        if (name == null) return UNNAMED_CLASS;
+        LighterASTNode parent = tree.getParent(classNode);
+        if (parent == null || parent.getTokenType() != JavaElementType.CLASS) {
+            // Top-level classes are children of the file, local classes of a statement
+            boolean topLevel = parent != null && tree.getParent(parent) == null;
+            return !topLevel ? UNNAMED_CLASS : packageName.isEmpty() ? name : packageName + "." + name;
+        }
+        String outerName = referencingClass(tree, parent, packageName);
+        return outerName.equals(UNNAMED_CLASS) ? UNNAMED_CLASS : outerName + "." + name;
+    }
+
+    /**
+     * Local classes are declared by a statement, member classes by their class and top-level classes by the file.
+     */
+    private static boolean isLocalClass(LighterAST tree, LighterASTNode classNode) {
+        LighterASTNode parent = tree.getParent(classNode);
+        return classNode.getTokenType() == JavaElementType.CLASS
+                && parent != null && parent.getTokenType() == JavaElementType.DECLARATION_STATEMENT;
+    }
+
+    private static String superClassName(LighterAST tree, LighterASTNode classNode) {
+        LighterASTNode extendsList = LightTreeUtil.firstChildOfType(tree, classNode, JavaElementType.EXTENDS_LIST);
+        LighterASTNode reference = extendsList != null
+                ? LightTreeUtil.firstChildOfType(tree, extendsList, JavaElementType.JAVA_CODE_REFERENCE)
+                : null;
+        return reference != null ? JavaLightTreeUtil.getNameIdentifierText(tree, reference) : null;
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<References> getValueExternalizer() {
+        return new DataExternalizer<>() {
+            @Override
+            public void save(@NotNull DataOutput out, References value) throws IOException {
+                IOUtil.writeUTF(out, value.packageName());
+                DataInputOutputUtil.writeINT(out, value.referencingClasses().size());
+                for (String referencingClass : value.referencingClasses()) {
+                    IOUtil.writeUTF(out, referencingClass);
+                }
+            }
+
+            @Override
+            public References read(@NotNull DataInput in) throws IOException {
+                String packageName = IOUtil.readUTF(in);
+                int size = DataInputOutputUtil.readINT(in);
+                Set<String> referencingClasses = new HashSet<>(size);
+                for (int i = 0; i < size; i++) {
+                    referencingClasses.add(IOUtil.readUTF(in));
+                }
+                return new References(packageName, referencingClasses);
+            }
+        };
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public @NotNull FileBasedIndex.InputFilter getInputFilter() {
+        return new DefaultFileTypeSpecificInputFilter(JavaFileType.INSTANCE);
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiJavaFile;
+
+/**
+ * A single usage of a member, reduced to what the visibility analysis needs:
+ * the top-level class and package the usage comes from, and whether the class around the usage inherits
+ * from the member's class.
+ * <p>
+ * Private members are accessible anywhere inside their top-level class, so only that is kept of the caller.
+ * A null {@code callerClass} means the containing class could not be determined.
+ */
+public record MemberUsage(String callerClass, String callerPackage, boolean subclass) {
+
+    public static final MemberUsage UNKNOWN = new MemberUsage(null, null, false);
+
+    /**
+     * Classifies a referencing element against the class that declares the referenced member,
+     * see {@link MemberKey#ownerClass}.
+     */
+    public static MemberUsage of(PsiElement element, PsiClass memberClass) {
+        return of(element, memberClass, null);
+    }
+
+    /**
+     * Same as {@link #of(PsiElement, PsiClass)}, but answers the subclass question from the hierarchy snapshot
+     * if both classes are part of it.
+     *
+     * @param hierarchy Snapshot of the current scan, may be null.
+     */
+    public static MemberUsage of(PsiElement element, PsiClass memberClass, ClassHierarchySnapshot hierarchy) {
+        PsiClass usageClass = findContainingClass(element);
+        if (usageClass == null) {
+            // Imports and package-info files: outside any class, but still within a package
+            return element != null && element.getContainingFile() instanceof PsiJavaFile javaFile
+                    ? new MemberUsage(MemberKey.ofClass(null), javaFile.getPackageName(), false)
+                    : UNKNOWN;
+        }
+        String callerPackage = MemberKey.packageOf(usageClass);
+        boolean subclass = false;
+        if (!usageClass.equals(memberClass)
+                && (callerPackage == null || !callerPackage.equals(MemberKey.packageOf(memberClass)))) {
+            // Only needed if neither class nor package match, and the inheritor check is the expensive part
+            String usageClassKey = MemberKey.ofClass(usageClass);
+            String memberClassKey = MemberKey.ofClass(memberClass);
+            subclass = hierarchy != null && hierarchy.contains(usageClassKey) && hierarchy.contains(memberClassKey)
+                    ? hierarchy.isInheritor(usageClassKey, memberClassKey)
+                    : usageClass.isInheritor(memberClass, true);
+        }
+        return new MemberUsage(MemberKey.ofTopLevelClass(usageClass), callerPackage, subclass);
+    }
+
+    private static PsiClass findContainingClass(PsiElement element) {
+        while (element != null) {
+            if (element instanceof PsiClass) {
+                return (PsiClass) element;
+            }
+            element = element.getParent();
+        }
+        return null;
+    }
+}
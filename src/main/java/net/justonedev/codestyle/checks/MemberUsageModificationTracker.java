@@ -0,0 +1,141 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.psi.PsiCodeBlock;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiIdentifier;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.util.PsiTreeUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Modification trackers for the usages of members with a given name.
+ * <p>
+ * The platform's PSI modification count changes on every keystroke, which would throw away every cached
+ * {@link VisibilityInfo} while the user types. Most edits happen inside method bodies though, and such an edit
+ * can only change usages of members whose name appears in what was changed. So edits inside a code block only
+ * advance the trackers of the identifiers in the removed and added elements, and everything else
+ * (declarations, signatures, imports, non-Java files, ...) advances all trackers.
+ * <p>
+ * Only names somebody asked a tracker for are counted, see {@link #forName}. Nothing cached can depend on the others.
+ */
+@Service(Service.Level.PROJECT)
+public final class MemberUsageModificationTracker implements Disposable {
+    private final AtomicLong structureCount = new AtomicLong();
+    private final Map<String, AtomicLong> nameCounts = new ConcurrentHashMap<>();
+
+    public MemberUsageModificationTracker(Project project) {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(new ChangeListener(), this);
+    }
+
+    public static MemberUsageModificationTracker getInstance(Project project) {
+        return project.getService(MemberUsageModificationTracker.class);
+    }
+
+    /**
+     * Returns a tracker that changes whenever usages of members with the given name may have changed.
+     */
+    public ModificationTracker forName(String name) {
+        AtomicLong nameCount = nameCounts.computeIfAbsent(name, key -> new AtomicLong());
+        return () -> structureCount.get() + nameCount.get();
+    }
+
+    @Override
+    public void dispose() {
+        nameCounts.clear();
+    }
+
+    /**
+     * Advances the trackers of the names in the changed element, or all trackers if the change is outside of a body.
+     *
+     * @param changed What to take the names from, the parent of the change if null.
+     */
+    private void onChange(PsiTreeChangeEvent event, PsiElement changed) {
+        PsiFile file = event.getFile();
+        if (file != null && !file.isPhysical()) return;
+
+        PsiCodeBlock body = file instanceof PsiJavaFile ? findOutermostBody(event.getParent()) : null;
+        if (body == null || PsiTreeUtil.getParentOfType(body, PsiMethod.class) instanceof PsiMethod method
+                && method.isConstructor()) {
+            // Outside of method bodies, and this()/super() calls, which don't mention the name of the constructor
+            structureCount.incrementAndGet();
+            return;
+        }
+        PsiElement root = changed != null ? changed : event.getParent();
+        if (!root.isValid()) return;
+        PsiTreeUtil.processElements(root, element -> {
+            if (element instanceof PsiIdentifier identifier) {
+                AtomicLong nameCount = nameCounts.get(identifier.getText());
+                if (nameCount != null) {
+                    nameCount.incrementAndGet();
+                }
+            }
+            return true;
+        });
+    }
+
+    private static PsiCodeBlock findOutermostBody(PsiElement element) {
+        if (element == null || !element.isValid()) return null;
+        PsiCodeBlock outermost = PsiTreeUtil.getTopmostParentOfType(element, PsiCodeBlock.class);
+        if (outermost != null) return outermost;
+        return element instanceof PsiCodeBlock block ? block : null;
+    }
+
+    /**
+     * Takes the names of removed and replaced elements before the change, while they are still valid, and the names of
+     * added elements after it. Only the changed elements are looked at, not the whole body around them.
+     */
+    private class ChangeListener extends PsiTreeChangeAdapter {
+        @Override
+        public void beforeChildRemoval(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, event.getChild());
+        }
+
+        @Override
+        public void beforeChildReplacement(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, event.getOldChild());
+        }
+
+        @Override
+        public void beforeChildMovement(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, event.getChild());
+        }
+
+        @Override
+        public void beforeChildrenChange(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, null);
+        }
+
+        @Override
+        public void beforePropertyChange(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, null);
+        }
+
+        @Override
+        public void childAdded(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, event.getChild());
+        }
+
+        @Override
+        public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, event.getNewChild());
+        }
+
+        @Override
+        public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, null);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Runs the visibility scan without any UI, for CI builds:
+ * <pre>
+ * idea.sh minimalVisibility &lt;project dir&gt; [--output=&lt;file&gt;] [--format=jsonl|sarif] [--threads=&lt;n&gt;]
+ *         [--protected=use|when-inherited|never] [--package-private=use|never]
+ *         [--fail-exit-code=&lt;n&gt;] [--error-exit-code=&lt;n&gt;] [--stats=&lt;file&gt;] [--changed-since=&lt;revision&gt;]
+ * </pre>
+ * Results are written to the report while the scan is running, the report goes to stdout if no output file is given.
+ * Timings and counters of the scan are printed to stderr, and written as JSON to the stats file if one is given.
+ * With {@code --changed-since}, only what the files changed since the revision can affect is scanned,
+ * see {@link ChangedFilesScope}.
+ * The process exits with the fail exit code (default 1) if anything can be lowered, with the error exit code
+ * (default 2) if the scan could not be run, and with 0 otherwise.
+ */
+public class MinimalVisibilityApplicationStarter implements ApplicationStarter {
+
+    private static final String USAGE = "Usage: minimalVisibility <project dir> [--output=<file>] [--format=jsonl|sarif] "
+            + "[--threads=<n>] [--protected=use|when-inherited|never] [--package-private=use|never] "
+            + "[--fail-exit-code=<n>] [--error-exit-code=<n>] [--stats=<file>] [--changed-since=<revision>]";
+
+    /**
+     * Parsed command line.
+     *
+     * @param output Report file, or null for stdout.
+     * @param stats        Statistics file, or null.
+     * @param changedSince Base revision to limit the scan to changed files, or null for the whole project.
+     */
+    private record Arguments(Path projectDir, Path output, ScanReportWriter.Format format, ScanOptions options,
+                             VisibilitySettings settings, int failExitCode, int errorExitCode, Path stats,
+                             String changedSince) {
+    }
+
+    @Override
+    public int getRequiredModality() {
+        // The scan waits for indexing and runs read actions, neither may block the EDT
+        return NOT_IN_EDT;
+    }
+
+    @Override
+    public void main(@NotNull List<String> args) {
+        Arguments arguments;
+        try {
+            arguments = parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(findErrorExitCode(args));
+            return;
+        }
+        System.exit(run(arguments));
+    }
+
+    private static int run(Arguments arguments) {
+        Project project = ProjectUtil.openOrImport(arguments.projectDir(), null, false);
+        if (project == null) {
+            System.err.println("Could not open project " + arguments.projectDir());
+            return arguments.errorExitCode();
+        }
+        try {
+            DumbService.getInstance(project).waitForSmartMode();
+
+            ScanOptions options = arguments.options();
+            if (arguments.changedSince() != null) {
+                ChangedFilesScope.Changes changes = ChangedFilesScope.findChanges(project, arguments.changedSince());
+                options = options.withChangedFiles(changes.files(), changes.removedNames());
+            }
+            ScanOptions scanOptions = options;
+            ScanStatistics stats = new ScanStatistics();
+            ProgressIndicator indicator = new EmptyProgressIndicator();
+            int count;
+            try (ScanReportWriter reportWriter = ScanReportWriter.create(arguments.format(), project, openOutput(arguments))) {
+                ProgressManager.getInstance().runProcess(() -> MinimalVisibilityScanHelper.runScan(
+                        project, arguments.settings(), scanOptions, stats, reportWriter, indicator), indicator);
+                count = reportWriter.getCount();
+            }
+            System.err.println(count + " members can have a lower visibility.");
+            System.err.print(stats.getReport());
+            if (arguments.stats() != null) {
+                createParentDirectories(arguments.stats());
+                Files.writeString(arguments.stats(), stats.toJson() + "\n", StandardCharsets.UTF_8);
+            }
+            return count > 0 ? arguments.failExitCode() : 0;
+        } catch (IOException | ExecutionException | RuntimeException e) {
+            System.err.println("Minimal visibility scan failed: " + e);
+            return arguments.errorExitCode();
+        } finally {
+            ApplicationManager.getApplication().invokeAndWait(() -> ProjectManager.getInstance().closeAndDispose(project));
+        }
+    }
+
+    private static Writer openOutput(Arguments arguments) throws IOException {
+        if (arguments.output() == null) {
+            // Not closed together with the report, so System.out stays usable
+            return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+        createParentDirectories(arguments.output());
+        return Files.newBufferedWriter(arguments.output(), StandardCharsets.UTF_8);
+    }
+
+    private static void createParentDirectories(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+    }
+
+    private static Arguments parseArguments(List<String> args) {
+        // The first argument is the command name
+        Path projectDir = null;
+        Path output = null;
+        ScanReportWriter.Format format = ScanReportWriter.Format.JSONL;
+        int threads = ScanOptions.DEFAULT.parallelism();
+        VisibilitySettings.ProtectedStatus protectedStatus = VisibilitySettings.DEFAULT.useProtected();
+        VisibilitySettings.PackagePrivateStatus packagePrivateStatus = VisibilitySettings.DEFAULT.usePackagePrivate();
+        int failExitCode = 1;
+        int errorExitCode = 2;
+        Path stats = null;
+        String changedSince = null;
+
+        for (String arg : args.subList(Math.min(1, args.size()), args.size())) {
+            if (!arg.startsWith("--")) {
+                if (projectDir != null) {
+                    throw new IllegalArgumentException("Only one project directory can be given: " + arg);
+                }
+                projectDir = Path.of(arg).toAbsolutePath().normalize();
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Missing value: " + arg);
+            }
+            String value = arg.substring(separator + 1);
+            switch (arg.substring(2, separator)) {
+                case "output" -> output = Path.of(value);
+                case "format" -> format = ScanReportWriter.Format.get(value);
+                case "threads" -> threads = parseInt(arg, value);
+                case "protected" -> protectedStatus = VisibilitySettings.ProtectedStatus.parse(value);
+                case "package-private" -> packagePrivateStatus = VisibilitySettings.PackagePrivateStatus.parse(value);
+                case "fail-exit-code" -> failExitCode = parseInt(arg, value);
+                case "error-exit-code" -> errorExitCode = parseInt(arg, value);
+                case "stats" -> stats = Path.of(value);
+                case "changed-since" -> changedSince = value;
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (projectDir == null || !Files.isDirectory(projectDir)) {
+            throw new IllegalArgumentException("Missing or invalid project directory");
+        }
+        return new Arguments(projectDir, output, format, new ScanOptions(threads),
+                new VisibilitySettings(packagePrivateStatus, protectedStatus), failExitCode, errorExitCode, stats, changedSince);
+    }
+
+    /**
+     * The error exit code for arguments that can't be parsed: the one given with {@code --error-exit-code}, if it is
+     * a number, otherwise the default 2.
+     */
+    private static int findErrorExitCode(List<String> args) {
+        int errorExitCode = 2;
+        for (String arg : args) {
+            if (arg.startsWith("--error-exit-code=")) {
+                try {
+                    errorExitCode = Integer.parseInt(arg.substring("--error-exit-code=".length()));
+                } catch (NumberFormatException ignored) {
+                    // Reported by parseArguments
+                }
+            }
+        }
+        return errorExitCode;
+    }
+
+    private static int parseInt(String arg, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + arg);
+        }
+    }
+}
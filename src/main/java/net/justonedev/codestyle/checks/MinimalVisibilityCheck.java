@@ -1,79 +1,68 @@
 package net.justonedev.codestyle.checks;
 
 import com.intellij.lang.jvm.JvmClassKind;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
-import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.psi.PsiClass;
-import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiEnumConstant;
+import com.intellij.psi.PsiMember;
 import com.intellij.psi.PsiMethod;
 import com.intellij.psi.PsiReference;
 import com.intellij.psi.PsiSubstitutor;
 import com.intellij.psi.search.GlobalSearchScope;
-import com.intellij.psi.search.searches.AllClassesSearch;
 import com.intellij.psi.search.searches.OverridingMethodsSearch;
 import com.intellij.psi.search.searches.ReferencesSearch;
 import com.intellij.psi.util.MethodSignature;
+import com.intellij.psi.util.PsiUtil;
 import com.intellij.util.Query;
+import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 
 public class MinimalVisibilityCheck extends AnAction {
 
     /**
-     * Performs the action logic.
-     * <p>
-     * It is called on the UI thread with all data in the provided {@link DataContext} instance.
+     * Scans the whole project with the settings of the inspection profile. The scan runs in the background through
+     * the {@link MinimalVisibilityScanService}, and its results show up in the tool window as they are found.
      *
      * @param e Action Event
      */
     @Override
-    public void actionPerformed(AnActionEvent e) {
-        //Messages.showInfoMessage("Minimal 1 v2", "Title");
-
+    public void actionPerformed(@NotNull AnActionEvent e) {
         Project project = e.getProject();
         if (project == null) {
             return;
         }
-
-        // 1. Gather all PSI classes in the project.
-        Collection<PsiClass> allClasses = AllClassesSearch.search(GlobalSearchScope.projectScope(project), project).findAll();
-
-        // 2. For each class, iterate over methods.
-        StringBuilder resultBuilder = new StringBuilder();
-        for (PsiClass psiClass : allClasses) {
-            for (PsiMethod psiMethod : psiClass.getMethods()) {
-
-                // Exclude certain methods here
-                if (psiMethod.hasAnnotation("java.lang.Override")
-                    || !psiMethod.isPhysical()
-                    || isMainMethod(psiMethod)
-                    || OverridingMethodsSearch.search(psiMethod).findFirst() != null) continue;
-
-                VisibilityInfo visibilityInfo = analyzeMethodUsage(psiMethod, project);
-                if (visibilityInfo.canLowerVisibility()) {
-                    resultBuilder.append("Method: ")
-                            .append(psiClass.getQualifiedName())
-                            .append(".")
-                            .append(psiMethod.getName())
-                            .append(" => can be lowered to: ")
-                            .append(visibilityInfo.getSuggestedLevel())
-                            .append("\n");
-                }
-            }
+        ToolWindow toolWindow = ToolWindowManager.getInstance(project)
+                .getToolWindow(MinimalVisibilityToolWindowFactory.TOOL_WINDOW_ID);
+        if (toolWindow == null) {
+            return;
         }
+        VisibilitySettings settings = MinimalVisibilityGlobalInspection.getSettings(project);
+        // The content is created once the tool window is shown
+        toolWindow.activate(() -> {
+            MinimalVisibilityToolWindowPanel panel = MinimalVisibilityToolWindowPanel.find(toolWindow);
+            if (panel != null) {
+                panel.scanProject(project, settings);
+            }
+        });
+    }
 
-        if (!resultBuilder.isEmpty()) {
-            Messages.showInfoMessage(project, resultBuilder.toString(), "Lower Visibility Suggestions");
-        } else {
-            Messages.showInfoMessage(project, "No methods found that can be lowered.", "Lower Visibility");
-        }
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabled(e.getProject() != null);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
     }
 
     private static boolean isMainMethod(PsiMethod method) {
@@ -84,80 +73,149 @@ public class MinimalVisibilityCheck extends AnAction {
     }
 
     /**
-     * Analyzes a single PsiMethod’s references across the project to see if the method’s visibility can be lowered.
+     * Analyzes a single member’s references across the project to see if the member’s visibility can be lowered.
+     * Members are methods, constructors, fields and classes.
      */
-    @SuppressWarnings("UnstableApiUsage")
-    public static VisibilityInfo analyzeMethodUsage(PsiMethod method, Project project) {
+    public static VisibilityInfo analyzeMemberUsage(PsiMember member, Project project) {
+        UsageSearchPrefilter prefilter = new UsageSearchPrefilter(project, GlobalSearchScope.projectScope(project));
+        return analyzeMemberUsage(member, prefilter, null);
+    }
+
+    /**
+     * Analyzes a single member’s references, searching only as far as the word index says they can reach.
+     *
+     * @param prefilter Shared by all members of a scan, so occurrences of a name are only looked up once.
+     * @param stats     Receives the search tier, analysis time and number of references of the member, may be null.
+     */
+    public static VisibilityInfo analyzeMemberUsage(PsiMember member, UsageSearchPrefilter prefilter, ScanStatistics stats) {
+        return analyzeMemberUsage(member, prefilter, stats, null);
+    }
+
+    /**
+     * Same as {@link #analyzeMemberUsage(PsiMember, UsageSearchPrefilter, ScanStatistics)}, but answers subclass and
+     * override questions from the hierarchy snapshot of the scan.
+     *
+     * @param hierarchy Snapshot of the scan, may be null to ask the PSI instead.
+     */
+    public static VisibilityInfo analyzeMemberUsage(PsiMember member,
+                                                    UsageSearchPrefilter prefilter,
+                                                    ScanStatistics stats,
+                                                    ClassHierarchySnapshot hierarchy) {
         // Current visibility
-        VisibilityInfo info = new VisibilityInfo(Visibility.fromMethod(method));
+        VisibilityInfo info = VisibilityInfo.of(member);
 
-        if (method.hasAnnotation("java.lang.Override")
-                || !method.isPhysical()
-                || isMainMethod(method)
-                || Objects.requireNonNull(method.getContainingClass()).getClassKind().equals(JvmClassKind.INTERFACE)
-                || OverridingMethodsSearch.search(method).findFirst() != null) {
+        if (isExcludedFromAnalysis(member, hierarchy)) {
+            if (stats != null) {
+                stats.recordSkipped(1);
+            }
             info.setPublicUsageFound(true);
             return info;
         }
 
-        // 1. Query references in the entire project
-        Query<PsiReference> search = ReferencesSearch.search(method, GlobalSearchScope.projectScope(project));
-        // 2. Examine where references come from
+        // 1. Find out from the word index where references can come from at all
+        long start = System.nanoTime();
+        UsageSearchPrefilter.Classification classification = prefilter.classify(member);
+        if (stats != null) {
+            stats.recordClassification(classification);
+        }
+        if (classification.trivial()) {
+            return info; // nothing else can use it
+        }
+
+        PsiClass ownerClass = MemberKey.ownerClass(member);
+        String topLevelClassKey = MemberKey.ofTopLevelClass(member);
+        String memberPackage = MemberKey.packageOf(ownerClass);
+
+        // 2. Query references, only where the name occurs
+        Query<PsiReference> search = ReferencesSearch.search(member, classification.searchScope());
+        // 3. Examine where references come from
+        int examined = 0;
         for (PsiReference ref : search) {
-            PsiElement element = ref.getElement();
+            examined++;
             // For each usage, determine if the usage is from the same class, same package, etc.
-            PsiClass usageClass = findContainingClass(element);
-            if (usageClass == null) {
-                // If we can’t figure it out, err on the side of "public" usage
-                info.setPublicUsageFound(true);
-                break;
-            } else {
-                // Compare usage class vs. method class
-                PsiClass methodClass = method.getContainingClass();
-                assert methodClass != null;
-                if (!inSameClass(methodClass, usageClass)) {
-                    if (inSamePackage(methodClass, usageClass)) {
-                        info.setPackagePrivateUsageFound(true);
-                    } else if (isSubclass(methodClass, usageClass)) {
-                        info.setProtectedUsageFound(true);
-                    } else {
-                        info.setPublicUsageFound(true);
-                        break; // can't do better than public
-                    }
-                }
+            MemberUsage usage = MemberUsage.of(ref.getElement(), ownerClass, hierarchy);
+            if (info.recordUsage(usage, topLevelClassKey, memberPackage)) {
+                break; // can't do better than public
+            }
+            if (classification.isPackageLocal() && info.isPackagePrivateUsageFound()) {
+                break; // all usages are in the package, so this is as high as it gets
             }
         }
 
+        if (stats != null) {
+            stats.recordReferencesExamined(examined);
+            stats.recordMemberAnalysis(MemberKey.of(member), System.nanoTime() - start);
+        }
         return info;
     }
 
-    private static PsiClass findContainingClass(PsiElement element) {
-        while (element != null) {
-            if (element instanceof PsiClass) {
-                return (PsiClass) element;
-            }
-            element = element.getParent();
+    /**
+     * The members of a class that are analyzed: the class itself, unless it is local or anonymous,
+     * and its methods, constructors and fields. Nested classes are analyzed as classes of their own.
+     */
+    public static List<PsiMember> getAnalyzedMembers(PsiClass psiClass) {
+        List<PsiMember> members = new ArrayList<>();
+        if (psiClass.getName() != null && !PsiUtil.isLocalOrAnonymousClass(psiClass)) {
+            members.add(psiClass);
         }
-        return null;
+        members.addAll(Arrays.asList(psiClass.getMethods()));
+        members.addAll(Arrays.asList(psiClass.getFields()));
+        return members;
     }
 
-    private static boolean inSameClass(PsiClass c1, PsiClass c2) {
-        return c1.equals(c2);
+    /**
+     * Members that must keep their visibility regardless of usages: see {@link #isExcludedFromAnalysis(PsiMethod)}
+     * for methods, non-physical members, interface members, enum constants and classes with a main method.
+     */
+    public static boolean isExcludedFromAnalysis(PsiMember member, ClassHierarchySnapshot hierarchy) {
+        if (member instanceof PsiMethod method) {
+            return isExcludedFromAnalysis(method, hierarchy);
+        }
+        PsiClass containingClass = member.getContainingClass();
+        if (!member.isPhysical()
+                || member instanceof PsiEnumConstant
+                || containingClass != null && containingClass.isInterface()) {
+            return true;
+        }
+        // Entry points are started from outside the project
+        return member instanceof PsiClass psiClass
+                && Arrays.stream(psiClass.getMethods()).anyMatch(MinimalVisibilityCheck::isMainMethod);
     }
 
-    private static boolean inSamePackage(PsiClass c1, PsiClass c2) {
-        PsiFile f1 = c1.getContainingFile();
-        PsiFile f2 = c2.getContainingFile();
-        if (f1 instanceof PsiJavaFile && f2 instanceof PsiJavaFile) {
-            String p1 = ((PsiJavaFile) f1).getPackageName();
-            String p2 = ((PsiJavaFile) f2).getPackageName();
-            return p1.equals(p2);
+    /**
+     * Methods that must keep their visibility regardless of usages: overrides, overridden methods,
+     * interface methods, enum constructors, main methods and non-physical methods.
+     */
+    public static boolean isExcludedFromAnalysis(PsiMethod method) {
+        return isExcludedFromAnalysis(method, null);
+    }
+
+    /**
+     * Same as {@link #isExcludedFromAnalysis(PsiMethod)}, but looks up overrides in the hierarchy snapshot if the
+     * method's class is part of it.
+     */
+    public static boolean isExcludedFromAnalysis(PsiMethod method, ClassHierarchySnapshot hierarchy) {
+        if (isExcludedIgnoringOverriders(method)) {
+            return true;
         }
-        return false;
+        PsiClass containingClass = Objects.requireNonNull(method.getContainingClass());
+        if (hierarchy != null && hierarchy.contains(MemberKey.ofClass(containingClass))) {
+            return hierarchy.isOverridden(method);
+        }
+        return OverridingMethodsSearch.search(method).findFirst() != null;
     }
 
-    private static boolean isSubclass(PsiClass base, PsiClass maybeSubclass) {
-        // Very naive check.
-        return maybeSubclass.isInheritor(base, true);
+    /**
+     * Same as {@link #isExcludedFromAnalysis(PsiMethod)}, except for methods that are overridden somewhere,
+     * for callers that know the overriding methods already.
+     */
+    @SuppressWarnings("UnstableApiUsage")
+    public static boolean isExcludedIgnoringOverriders(PsiMethod method) {
+        PsiClass containingClass = Objects.requireNonNull(method.getContainingClass());
+        return method.hasAnnotation("java.lang.Override")
+                || !method.isPhysical()
+                || isMainMethod(method)
+                || containingClass.getClassKind().equals(JvmClassKind.INTERFACE)
+                || method.isConstructor() && containingClass.isEnum();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,220 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.codeInspection.CommonProblemDescriptor;
+import com.intellij.codeInspection.GlobalInspectionContext;
+import com.intellij.codeInspection.GlobalJavaBatchInspectionTool;
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.LocalInspectionTool;
+import com.intellij.codeInspection.LocalQuickFix;
+import com.intellij.codeInspection.ProblemDescriptionsProcessor;
+import com.intellij.codeInspection.ProblemHighlightType;
+import com.intellij.codeInspection.reference.RefClass;
+import com.intellij.codeInspection.reference.RefElement;
+import com.intellij.codeInspection.reference.RefEntity;
+import com.intellij.codeInspection.reference.RefField;
+import com.intellij.codeInspection.reference.RefJavaElement;
+import com.intellij.codeInspection.ex.InspectionToolWrapper;
+import com.intellij.codeInspection.reference.RefMethod;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.ComboBox;
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiIdentifier;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.PsiNameIdentifierOwner;
+import com.intellij.psi.util.PsiUtil;
+import com.intellij.ui.SimpleListCellRenderer;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBLabel;
+import org.jdom.Element;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Minimal visibility for "Inspect Code": instead of searching the references of every member, the usages are read
+ * from the reference graph the platform builds once per inspection run.
+ * <p>
+ * The graph only knows references from inside the analysis scope. If the scope is not the whole project including
+ * tests, members are searched like in the editor instead. In the editor, {@link MinimalVisibilityInspection} is used.
+ */
+public class MinimalVisibilityGlobalInspection extends GlobalJavaBatchInspectionTool {
+
+    public static final String SHORT_NAME = "MinimalVisibilityInspection";
+
+    /**
+     * When members may be suggested protected, like the "protected" option of the tool window.
+     */
+    public VisibilitySettings.ProtectedStatus useProtected = VisibilitySettings.ProtectedStatus.WHEN_INHERITED;
+    /**
+     * Whether members only used from their own package may be suggested package-private.
+     * Otherwise no package-private suggestions are made.
+     */
+    public boolean allowPackagePrivate = false;
+
+    @Override
+    public @NotNull String getShortName() {
+        return SHORT_NAME;
+    }
+
+    /**
+     * The settings of this inspection, shared with its on-the-fly part.
+     */
+    public VisibilitySettings getSettings() {
+        return new VisibilitySettings(
+                allowPackagePrivate ? VisibilitySettings.PackagePrivateStatus.USE : VisibilitySettings.PackagePrivateStatus.NEVER,
+                useProtected);
+    }
+
+    /**
+     * The settings of this inspection in the current inspection profile of the project.
+     */
+    public static VisibilitySettings getSettings(Project project) {
+        InspectionToolWrapper<?, ?> wrapper = InspectionProjectProfileManager.getInstance(project).getCurrentProfile()
+                .getInspectionTool(SHORT_NAME, project);
+        return wrapper != null && wrapper.getTool() instanceof MinimalVisibilityGlobalInspection inspection
+                ? inspection.getSettings()
+                : VisibilitySettings.DEFAULT;
+    }
+
+    @Override
+    public @Nullable LocalInspectionTool getSharedLocalInspectionTool() {
+        return new MinimalVisibilityInspection(this);
+    }
+
+    @Override
+    public void readSettings(@NotNull Element node) {
+        super.readSettings(node);
+        // Profiles saved before the protected option had three states only have the checkbox
+        for (Element option : node.getChildren("option")) {
+            if ("allowProtectedIfOverrides".equals(option.getAttributeValue("name"))
+                    && "false".equals(option.getAttributeValue("value"))) {
+                useProtected = VisibilitySettings.ProtectedStatus.NEVER;
+            }
+        }
+    }
+
+    @Override
+    public @Nullable JComponent createOptionsPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.gridy = 0;
+        gbc.gridx = 0;
+        gbc.anchor = GridBagConstraints.WEST;
+
+        // Same choices as the tool window, see VisibilityConfigDialog
+        JPanel protectedRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        protectedRow.add(new JBLabel("Allow 'protected': "));
+        ComboBox<VisibilitySettings.ProtectedStatus> protectedCombo =
+                new ComboBox<>(VisibilitySettings.ProtectedStatus.values());
+        protectedCombo.setRenderer(SimpleListCellRenderer.create("", status -> switch (status) {
+            case USE -> "When applicable";
+            case WHEN_INHERITED -> "With Inheritors";
+            case NEVER -> "Never";
+        }));
+        protectedCombo.setSelectedItem(useProtected);
+        protectedCombo.addActionListener(e -> useProtected = (VisibilitySettings.ProtectedStatus) protectedCombo.getSelectedItem());
+        protectedRow.add(protectedCombo);
+        panel.add(protectedRow, gbc);
+
+        gbc.gridy++;
+        JBCheckBox checkPackagePrivate = new JBCheckBox("Allow 'package-private'", allowPackagePrivate);
+        checkPackagePrivate.addActionListener(e -> allowPackagePrivate = checkPackagePrivate.isSelected());
+        panel.add(checkPackagePrivate, gbc);
+
+        gbc.gridy++;
+        panel.add(new JBLabel("<html><i>Adjust how minimal visibility is assigned</i></html>"), gbc);
+
+        return panel;
+    }
+
+    @Override
+    public CommonProblemDescriptor @Nullable [] checkElement(@NotNull RefEntity refEntity,
+                                                              @NotNull AnalysisScope scope,
+                                                              @NotNull InspectionManager manager,
+                                                              @NotNull GlobalInspectionContext globalContext,
+                                                              @NotNull ProblemDescriptionsProcessor processor) {
+        if (!(refEntity instanceof RefMethod || refEntity instanceof RefField || refEntity instanceof RefClass)) {
+            return null;
+        }
+        RefJavaElement refElement = (RefJavaElement) refEntity;
+        if (PsiModifier.PRIVATE.equals(refElement.getAccessModifier())) {
+            return null; // can't go any lower
+        }
+        return ReadAction.compute(() -> {
+            if (!(refElement.getPsiElement() instanceof PsiMember member) || !member.isValid()) {
+                return null;
+            }
+            VisibilityInfo info = analyze(refElement, member, isGraphComplete(scope));
+            VisibilitySettings settings = getSettings();
+            if (info == null || !info.canLowerVisibility(settings)) {
+                return null;
+            }
+
+            PsiIdentifier nameIdentifier = member instanceof PsiNameIdentifierOwner owner
+                    && owner.getNameIdentifier() instanceof PsiIdentifier identifier ? identifier : null;
+            if (nameIdentifier == null) {
+                return null;
+            }
+            Visibility suggested = info.getSuggestedLevel(settings);
+            return new CommonProblemDescriptor[]{manager.createProblemDescriptor(
+                    nameIdentifier,
+                    MinimalVisibilityInspection.getMessage(member, suggested),
+                    false,
+                    new LocalQuickFix[]{new MinimalVisibilityInspection.LowerVisibilityQuickFix(suggested)},
+                    ProblemHighlightType.WEAK_WARNING)};
+        });
+    }
+
+    /**
+     * Whether the reference graph contains every reference of the project, so it can replace reference searches.
+     */
+    private static boolean isGraphComplete(AnalysisScope scope) {
+        return scope.getScopeType() == AnalysisScope.PROJECT && scope.isIncludeTestSource();
+    }
+
+    /**
+     * Computes the visibility info of a member, or null if it is not analyzed at all.
+     */
+    private static VisibilityInfo analyze(RefJavaElement refElement, PsiMember member, boolean graphComplete) {
+        if (member instanceof PsiClass psiClass
+                && (psiClass.getName() == null || PsiUtil.isLocalOrAnonymousClass(psiClass))) {
+            return null; // not analyzed in the editor either, see MinimalVisibilityCheck.getAnalyzedMembers
+        }
+        if (!graphComplete) {
+            return MinimalVisibilityScanService.getInstance(member.getProject()).analyzeMember(member);
+        }
+
+        VisibilityInfo info = VisibilityInfo.of(member);
+        // The graph knows the overrides, so only the remaining exclusions need the PSI
+        boolean excluded = member instanceof PsiMethod method
+                ? (MinimalVisibilityCheck.isExcludedIgnoringOverriders(method)
+                        || refElement instanceof RefMethod refMethod
+                        && (refMethod.hasSuperMethods() || !refMethod.getDerivedMethods().isEmpty()))
+                : MinimalVisibilityCheck.isExcludedFromAnalysis(member, null);
+        if (excluded) {
+            info.setPublicUsageFound(true);
+            return info;
+        }
+
+        PsiClass ownerClass = MemberKey.ownerClass(member);
+        String topLevelClassKey = MemberKey.ofTopLevelClass(member);
+        String memberPackage = MemberKey.packageOf(ownerClass);
+        for (RefElement referrer : refElement.getInReferences()) {
+            // The referrer is the method, field or class containing the reference, which is all a usage needs
+            PsiElement element = referrer.getPsiElement();
+            MemberUsage usage = element != null ? MemberUsage.of(element, ownerClass) : MemberUsage.UNKNOWN;
+            if (info.recordUsage(usage, topLevelClassKey, memberPackage)) {
+                break;
+            }
+        }
+        return info;
+    }
+}
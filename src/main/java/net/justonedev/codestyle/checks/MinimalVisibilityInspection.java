@@ -7,66 +7,54 @@ import com.intellij.codeInspection.ProblemHighlightType;
 import com.intellij.codeInspection.ProblemsHolder;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.JavaElementVisitor;
+import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiIdentifier;
+import com.intellij.psi.PsiMember;
 import com.intellij.psi.PsiMethod;
-import com.intellij.psi.PsiModifier;
-import com.intellij.psi.PsiModifierList;
-import com.intellij.ui.components.JBCheckBox;
-import com.intellij.ui.components.JBLabel;
+import com.intellij.psi.util.PsiUtil;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
-
-import javax.swing.*;
-import java.awt.*;
-import java.util.Objects;
 
+/**
+ * The on-the-fly part of {@link MinimalVisibilityGlobalInspection}, which owns the settings.
+ * Highlights a member in the editor if its visibility can be lowered.
+ * <p>
+ * While highlighting, members whose name occurs in too many files are not searched right away, so a file with
+ * popular names doesn't hold up the highlighting. They are analyzed in the background and show up a moment later,
+ * see {@link MinimalVisibilityScanService#analyzeMemberIfCheap}. Batch runs always check every member.
+ */
 public class MinimalVisibilityInspection extends LocalInspectionTool {
+    private final MinimalVisibilityGlobalInspection settingsOwner;
+
     /**
-     * These fields store the user’s configuration. For example:
+     * Standalone inspection with the default settings.
      */
-    public boolean allowProtectedIfOverrides = true; // “With Inheritors”
-    public boolean allowPackagePrivate = false;      // “Never (package-private)”
+    public MinimalVisibilityInspection() {
+        this(null);
+    }
+
+    MinimalVisibilityInspection(MinimalVisibilityGlobalInspection settingsOwner) {
+        this.settingsOwner = settingsOwner;
+    }
 
     /**
-     * The shortName must match the 'shortName' in plugin.xml if you use localInspection extension points.
+     * Same short name as the global inspection, so both share one entry in the inspection profile.
      */
     @Override
     public @NotNull String getShortName() {
-        return "MinimalVisibilityInspection";
+        return MinimalVisibilityGlobalInspection.SHORT_NAME;
     }
 
-    @Override
-    public @Nullable JComponent createOptionsPanel() {
-        // This builds a small panel with two checkboxes or drop-downs, for demonstration.
-
-        JPanel panel = new JPanel(new GridBagLayout());
-        GridBagConstraints gbc = new GridBagConstraints();
-        gbc.gridy = 0;
-        gbc.gridx = 0;
-        gbc.anchor = GridBagConstraints.WEST;
-
-        // Example 1: allowProtectedIfOverrides
-        JBCheckBox checkProtected = new JBCheckBox("Allow 'protected' if method has overrides", allowProtectedIfOverrides);
-        checkProtected.addActionListener(e -> allowProtectedIfOverrides = checkProtected.isSelected());
-        panel.add(checkProtected, gbc);
-
-        // Example 2: allowPackagePrivate
-        gbc.gridy++;
-        JBCheckBox checkPackagePrivate = new JBCheckBox("Allow 'package-private'", allowPackagePrivate);
-        checkPackagePrivate.addActionListener(e -> allowPackagePrivate = checkPackagePrivate.isSelected());
-        panel.add(checkPackagePrivate, gbc);
-
-        gbc.gridy++;
-        panel.add(new JBLabel("<html><i>Adjust how minimal visibility is assigned</i></html>"), gbc);
-
-        return panel;
+    private VisibilitySettings getSettings() {
+        return settingsOwner != null ? settingsOwner.getSettings() : VisibilitySettings.DEFAULT;
     }
 
     /**
      * The main entry point: for a Java inspection, we typically override buildVisitor().
-     * We return a PsiElementVisitor that visits methods (PsiMethod) in a Java file
-     * and checks if each method can be lowered in visibility.
+     * We return a PsiElementVisitor that visits methods, constructors, fields and classes in a Java file
+     * and checks if each of them can be lowered in visibility.
      */
     @Override
     public @NotNull PsiElementVisitor buildVisitor(@NotNull ProblemsHolder holder,
@@ -75,29 +63,59 @@ public class MinimalVisibilityInspection extends LocalInspectionTool {
             @Override
             public void visitMethod(@NotNull PsiMethod method) {
                 super.visitMethod(method);
+                checkMember(method, method.getNameIdentifier());
+            }
+
+            @Override
+            public void visitField(@NotNull PsiField field) {
+                super.visitField(field);
+                checkMember(field, field.getNameIdentifier());
+            }
+
+            @Override
+            public void visitClass(@NotNull PsiClass aClass) {
+                super.visitClass(aClass);
+                if (aClass.getName() == null || PsiUtil.isLocalOrAnonymousClass(aClass)) return;
+                checkMember(aClass, aClass.getNameIdentifier());
+            }
+
+            private void checkMember(PsiMember member, PsiIdentifier nameIdentifier) {
+                if (nameIdentifier == null) return;
 
-                VisibilityInfo visibilityInfo = MinimalVisibilityCheck.analyzeMethodUsage(method, holder.getProject());
-                if (!visibilityInfo.canLowerVisibility()) {
+                // Cached, so unchanged members are not searched again on every highlighting pass
+                MinimalVisibilityScanService service = MinimalVisibilityScanService.getInstance(member.getProject());
+                VisibilityInfo visibilityInfo = isOnTheFly
+                        ? service.analyzeMemberIfCheap(member)
+                        : service.analyzeMember(member);
+                if (visibilityInfo == null) {
+                    return; // too expensive for highlighting, the file is highlighted again once it was analyzed
+                }
+                VisibilitySettings settings = getSettings();
+                if (!visibilityInfo.canLowerVisibility(settings)) {
                     return; // no problem
                 }
 
                 // 3. If canLowerVisibility, register a Problem
-                String message = "Method visibility can be lowered to '" + visibilityInfo.getSuggestedLevel() + "'";
+                Visibility suggested = visibilityInfo.getSuggestedLevel(settings);
                 holder.registerProblem(
-                        Objects.requireNonNull(method.getNameIdentifier()),  // highlight the method name
-                        message,
+                        nameIdentifier,  // highlight the member name
+                        getMessage(member, suggested),
                         ProblemHighlightType.WEAK_WARNING,
-                        new LowerVisibilityQuickFix(visibilityInfo.getSuggestedLevel().getVisibility())
+                        new LowerVisibilityQuickFix(suggested)
                 );
             }
         };
     }
 
+    static String getMessage(PsiMember member, Visibility suggested) {
+        return VisibilityResult.getKindName(member) + " visibility can be lowered to '" + suggested + "'";
+    }
+
     /**
-     * Optional: a QuickFix to automatically reduce the method visibility.
+     * Optional: a QuickFix to automatically reduce the member visibility.
      * The user can click "Apply fix" in the inspection results.
      */
-    private record LowerVisibilityQuickFix(String newVisibility) implements LocalQuickFix {
+    record LowerVisibilityQuickFix(Visibility newVisibility) implements LocalQuickFix {
 
         @Override
         public @NotNull String getName() {
@@ -112,22 +130,8 @@ public class MinimalVisibilityInspection extends LocalInspectionTool {
         @Override
         public void applyFix(@NotNull Project project, @NotNull ProblemDescriptor descriptor) {
             PsiElement element = descriptor.getPsiElement();
-            if (!(element.getParent() instanceof PsiMethod method)) return;
-
-            PsiModifierList modifiers = method.getModifierList();
-            // First remove existing visibility modifiers
-            modifiers.setModifierProperty(PsiModifier.PUBLIC, false);
-            modifiers.setModifierProperty(PsiModifier.PROTECTED, false);
-            modifiers.setModifierProperty(PsiModifier.PRIVATE, false);
-
-            // Then set the new one
-            if (PsiModifier.PUBLIC.equals(newVisibility)) {
-                modifiers.setModifierProperty(PsiModifier.PUBLIC, true);
-            } else if (PsiModifier.PROTECTED.equals(newVisibility)) {
-                modifiers.setModifierProperty(PsiModifier.PROTECTED, true);
-            } else if (!"package-private".equals(newVisibility) && PsiModifier.PRIVATE.equals(newVisibility)) {
-                modifiers.setModifierProperty(PsiModifier.PRIVATE, true);
-            }
+            if (!(element.getParent() instanceof PsiMember member)) return;
+            newVisibility.applyTo(member);
         }
     }
 }
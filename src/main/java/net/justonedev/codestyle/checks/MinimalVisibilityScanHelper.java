@@ -1,44 +1,698 @@
 package net.justonedev.codestyle.checks;
 
+import com.intellij.concurrency.SensitiveProgressWrapper;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.psi.PsiClass;
-import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.search.FileTypeIndex;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.searches.AllClassesSearch;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.containers.ContainerUtil;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class MinimalVisibilityScanHelper {
 
+    private static final Logger LOG = Logger.getInstance(MinimalVisibilityScanHelper.class);
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Scans the whole project, or only what the changed files of {@link ScanOptions#changedFiles()} can affect.
+     * Must be called from a background thread without holding a read action.
+     * The scan only takes short read actions, one per class or file, which give way to write actions,
+     * so it doesn't block typing.
+     * <p>
+     * The usage graph and analyzed members are kept in the {@link MinimalVisibilityScanService},
+     * so files and members that did not change since the last scan are not looked at again.
+     */
     public static List<VisibilityResult> runScan(Project project,
-                                                 VisibilitySettings settings) {
-        // 1. Collect all classes
-        Collection<PsiClass> allClasses = AllClassesSearch
-                .search(GlobalSearchScope.projectScope(project), project)
-                .findAll();
+                                                 VisibilitySettings settings,
+                                                 ScanOptions options,
+                                                 ScanStatistics stats,
+                                                 ProgressIndicator indicator) {
+        List<VisibilityResult> results = new ArrayList<>();
+        runScan(project, settings, options, stats, results::addAll, indicator);
+        return results;
+    }
+
+    /**
+     * Scans the whole project like {@link #runScan(Project, VisibilitySettings, ScanOptions, ScanStatistics, ProgressIndicator)},
+     * but hands the results of every batch to the sink as soon as the batch is done, instead of collecting them.
+     * Batches are handed over in order, so the results arrive in the same order no matter how many threads are used.
+     * <p>
+     * Phase timings and counters are recorded in {@code stats} and written to the log once the scan is done.
+     * <p>
+     * With a {@link ScanOptions#checkpoint()}, classes done before are skipped, and the scan stops without an error
+     * once the {@link ScanCheckpoint#getTimeBudget()} is used up. If it is cancelled, the checkpoint keeps the classes
+     * done so far as well.
+     *
+     * @return False if the scan stopped at the time budget before it got through.
+     */
+    public static boolean runScan(Project project,
+                               VisibilitySettings settings,
+                               ScanOptions options,
+                               ScanStatistics stats,
+                               VisibilityResultSink sink,
+                               ProgressIndicator indicator) {
+        MinimalVisibilityScanService service = MinimalVisibilityScanService.getInstance(project);
+        // Waiting for another scan can be cancelled, e.g. by the edit that made a live update outdated
+        service.lockScan();
+        try {
+            service.restoreState();
+            service.setLastScanStatistics(stats);
+            runScan(project, service, settings, options, stats, sink, indicator);
+        } catch (BudgetExhaustedException e) {
+            LOG.info("Minimal visibility scan of " + project.getName() + " stopped after its time budget of "
+                    + options.checkpoint().getTimeBudget().toSeconds() + " s\n" + stats.getReport());
+            return false;
+        } finally {
+            service.unlockScan();
+        }
+        LOG.info("Minimal visibility scan of " + project.getName() + " done\n" + stats.getReport());
+        return true;
+    }
+
+    private static void runScan(Project project,
+                                MinimalVisibilityScanService service,
+                                VisibilitySettings settings,
+                                ScanOptions options,
+                                ScanStatistics stats,
+                                VisibilityResultSink sink,
+                                ProgressIndicator indicator) {
+        GlobalSearchScope scope = GlobalSearchScope.projectScope(project);
+        UsageGraph graph = service.getUsageGraph();
+        long scanStart = System.nanoTime();
+
+        // 1. Collect the classes to scan and all Java files
+        long phaseStart = System.nanoTime();
+        ChangedFilesScope changedScope = options.changedFiles() != null
+                ? readUnit(project, stats, () -> ChangedFilesScope.of(
+                        project, options.changedFiles(), options.removedNames(), scope))
+                : null;
+        ScanCheckpoint checkpoint = changedScope == null ? options.checkpoint() : null;
+        List<PsiClass> classes = new ArrayList<>(changedScope != null
+                ? changedScope.getClasses()
+                : readUnit(project, stats, () -> AllClassesSearch.search(scope, project).findAll()));
+        List<VirtualFile> javaFiles = new ArrayList<>(readUnit(project, stats, () -> FileTypeIndex.getFiles(JavaFileType.INSTANCE, scope)));
+        ModulePartition modules = readUnit(project, stats, () -> ModulePartition.of(project, classes));
+        stats.recordModuleCount(modules.getModuleCount());
+        stats.recordPhase(ScanStatistics.Phase.ENUMERATE, System.nanoTime() - phaseStart);
+
+        ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+                "Minimal Visibility Scan", options.parallelism());
+        try {
+            // 2. Classify all members with the word index, only the non-trivial ones need the graph.
+            //    Also take the hierarchy snapshot, which answers all override and subclass questions of this scan.
+            //    A snapshot of only some classes can't tell whether a method is overridden, so a scan of changed
+            //    files asks the PSI instead. Batches don't mix modules, so unrelated modules are classified and
+            //    later analyzed side by side. Classes done before the checkpoint are neither classified nor
+            //    described again, they add the entries the checkpoint kept for them to the snapshot.
+            phaseStart = System.nanoTime();
+            ClassHierarchySnapshot.Builder hierarchyBuilder = new ClassHierarchySnapshot.Builder();
+            Set<String> localClassOwners = changedScope == null
+                    ? readUnit(project, stats, () -> MemberReferenceIndex.getClassesDeclaringLocalClasses(scope))
+                    : Set.of();
+            UsageSearchPrefilter prefilter = new UsageSearchPrefilter(project, scope);
+            // PSI doesn't stay the same between read actions, so classes are kept as pointers and members as keys
+            Map<String, UsageSearchPrefilter.Classification> classifications = new ConcurrentHashMap<>();
+            // Name → modules declaring an analyzed member with that name
+            Map<String, Set<String>> memberNames = new ConcurrentHashMap<>();
+            // Class key → what the class contributed to the snapshot, kept with the class once it is done
+            Map<String, List<ClassHierarchySnapshot.ClassEntry>> describedClasses = new ConcurrentHashMap<>();
+            List<List<ScannedClass>> classPartitions = new ArrayList<>();
+            List<Computable<Void>> classifyBatches = new ArrayList<>();
+            modules.getClassesByModule().forEach((module, moduleClasses) -> {
+                List<ScannedClass> remaining = new ArrayList<>();
+                for (List<PsiClass> batch : partition(moduleClasses)) {
+                    for (ScannedClass scannedClass : readUnit(project, stats,
+                            () -> ContainerUtil.map(batch, ScannedClass::of))) {
+                        List<ClassHierarchySnapshot.ClassEntry> doneEntries = checkpoint != null
+                                ? checkpoint.getHierarchyEntries(scannedClass.key())
+                                : null;
+                        if (doneEntries != null) {
+                            hierarchyBuilder.add(doneEntries);
+                        } else {
+                            remaining.add(scannedClass);
+                        }
+                    }
+                }
+                for (List<ScannedClass> scannedClasses : partition(remaining)) {
+                    classPartitions.add(scannedClasses);
+                    classifyBatches.add(() -> {
+                        for (ScannedClass scannedClass : scannedClasses) {
+                            SmartPsiElementPointer<PsiClass> pointer = scannedClass.pointer();
+                            ClassifiedClass classified = readUnit(project, stats,
+                                    () -> classifyClass(pointer.getElement(), prefilter, changedScope));
+                            List<ClassHierarchySnapshot.ClassEntry> hierarchyEntries = readUnit(project, stats, () -> {
+                                PsiClass psiClass = pointer.getElement();
+                                return psiClass != null && psiClass.isValid() && changedScope == null
+                                        ? ClassHierarchySnapshot.describe(psiClass, scope, localClassOwners)
+                                        : List.<ClassHierarchySnapshot.ClassEntry>of();
+                            });
+                            // Only recorded once the class is done, a restarted read action must not count twice
+                            hierarchyBuilder.add(hierarchyEntries);
+                            describedClasses.put(scannedClass.key(), hierarchyEntries);
+                            stats.recordSkipped(classified.skipped());
+                            scannedClass.memberKeys().addAll(classified.members().keySet());
+                            classified.members().forEach((memberKey, classification) -> {
+                                stats.recordClassification(classification);
+                                classifications.put(memberKey, classification);
+                                if (!classification.trivial()) {
+                                    memberNames.computeIfAbsent(MemberKey.nameOf(memberKey),
+                                            name -> ConcurrentHashMap.newKeySet()).add(module);
+                                }
+                            });
+                        }
+                        return null;
+                    });
+                }
+            });
+            runBatches(classifyBatches, executor, indicator, trackProgress(
+                    indicator, "classes classified", classPartitions, 0.0, 0.2, ignored -> {}));
+            ClassHierarchySnapshot hierarchy = changedScope == null ? hierarchyBuilder.build() : null;
+            stats.recordPhase(ScanStatistics.Phase.CLASSIFY, System.nanoTime() - phaseStart);
+
+            // 3. Resolve every call in files that changed since the last scan
+            phaseStart = System.nanoTime();
+            // Names of classes done before the checkpoint were not collected again, so keep the ones of the graph
+            boolean keepNames = changedScope != null || checkpoint != null && checkpoint.getDoneClassCount() > 0;
+            invalidateOutdatedFiles(project, scope, service, memberNames, modules, javaFiles, keepNames, stats);
+            List<VirtualFile> filesToWalk = changedScope == null
+                    ? javaFiles
+                    : readUnit(project, stats, () -> findFilesToWalk(
+                            project, scope, graph, changedScope, memberNames.keySet(), classifications));
+            List<List<VirtualFile>> filePartitions = partition(filesToWalk);
+            // How many rounds it takes is not known in advance, so each round takes most of what is left of the
+            // phase, and the indicator never goes back
+            double progress = 0.2;
+            do {
+                double walked = nextResolveProgress(progress);
+                walkFiles(project, service, filePartitions, hierarchy, executor, indicator, progress, walked, stats);
+                progress = walked;
+                // Callers of members whose declaration changed still point to the members as they were
+                Set<String> changedDeclarations;
+                while (!(changedDeclarations = graph.takeChangedDeclarations()).isEmpty()) {
+                    Set<String> changed = changedDeclarations;
+                    List<VirtualFile> callers = readUnit(project, stats, () -> findCallers(scope, graph, changed));
+                    for (VirtualFile caller : callers) {
+                        service.invalidate(graph.removeFile(caller.getUrl()));
+                    }
+                    walked = nextResolveProgress(progress);
+                    walkFiles(project, service, partition(callers), hierarchy, executor, indicator, progress, walked,
+                            stats);
+                    progress = walked;
+                }
+            } while (service.consumeGraphReset());
+            stats.recordMembersUsedOutsideModule(graph.countMembersUsedOutsideModule());
+            stats.recordPhase(ScanStatistics.Phase.RESOLVE, System.nanoTime() - phaseStart);
+
+            // 4. For each class, check members against the graph. A class only counts as done for the checkpoint
+            //    once its results were handed over, so a stopped scan never loses results. The time budget is only
+            //    checked between batches, so every slice of a budgeted scan gets at least one batch further.
+            phaseStart = System.nanoTime();
+            List<Computable<List<AnalyzedClass>>> classBatches = new ArrayList<>();
+            for (List<ScannedClass> batch : classPartitions) {
+                classBatches.add(() -> {
+                    List<AnalyzedClass> analyzedClasses = new ArrayList<>();
+                    for (ScannedClass scannedClass : batch) {
+                        AnalyzedClass analyzed = readUnit(project, stats, () -> analyzeClass(
+                                scannedClass.pointer().getElement(), scannedClass.memberKeys(), service,
+                                classifications, hierarchy, settings, stats));
+                        stats.recordSkipped(analyzed.skipped());
+                        analyzedClasses.add(analyzed);
+                    }
+                    return analyzedClasses;
+                });
+            }
+
+            int[] handedOver = {0};
+            runBatches(classBatches, executor, indicator, trackProgress(
+                    indicator, "classes analyzed", classPartitions, 0.5, 1.0, analyzedClasses -> {
+                        List<VisibilityResult> batchResults = new ArrayList<>();
+                        analyzedClasses.forEach(analyzed -> batchResults.addAll(analyzed.results()));
+                        if (!batchResults.isEmpty()) {
+                            sink.accept(batchResults);
+                        }
+                        if (checkpoint != null) {
+                            analyzedClasses.forEach(analyzed -> {
+                                if (analyzed.file() != null) {
+                                    checkpoint.markDone(analyzed.classKey(), analyzed.file(),
+                                            describedClasses.getOrDefault(analyzed.classKey(), List.of()));
+                                }
+                            });
+                        }
+                        if (++handedOver[0] < classBatches.size()) {
+                            checkBudget(checkpoint, scanStart);
+                        }
+                    }));
+            if (checkpoint != null) {
+                checkpoint.setComplete();
+            }
+            stats.recordPhase(ScanStatistics.Phase.ANALYZE, System.nanoTime() - phaseStart);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A class of the scan, which is found again in each read action through its pointer.
+     *
+     * @param key        Key of the class when the scan started, see {@link MemberKey#ofClass}.
+     * @param memberKeys Keys of the members that were classified, see {@link MemberKey#of}.
+     */
+    private record ScannedClass(SmartPsiElementPointer<PsiClass> pointer, String key, Set<String> memberKeys) {
+        /**
+         * Must be called inside a read action.
+         */
+        static ScannedClass of(PsiClass psiClass) {
+            return new ScannedClass(SmartPointerManager.createPointer(psiClass), MemberKey.ofClass(psiClass),
+                    ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Members of a class that need to be analyzed by their key, see {@link MemberKey#of}, and how many were left out.
+     */
+    private record ClassifiedClass(Map<String, UsageSearchPrefilter.Classification> members, int skipped) {
+    }
+
+    /**
+     * Results for the members of a class, and how many members were excluded from the analysis.
+     *
+     * @param classKey Key of the class, see {@link MemberKey#ofClass}.
+     * @param file     File declaring the class, null if the class was deleted.
+     */
+    private record AnalyzedClass(String classKey, VirtualFile file, List<VisibilityResult> results, int skipped) {
+    }
+
+    /**
+     * Stops a scan once its time budget is used up. Thrown like a cancellation between two batches, so the batches
+     * still running are cancelled, but caught by {@link #runScan} instead of ending the task.
+     */
+    private static final class BudgetExhaustedException extends ProcessCanceledException {
+    }
+
+    /**
+     * Must be called outside of read actions: a cancellation inside a non-blocking read action restarts it.
+     * Only called between the batches of the analysis, a class only counts as done for the checkpoint there.
+     */
+    private static void checkBudget(ScanCheckpoint checkpoint, long scanStart) {
+        Duration budget = checkpoint != null ? checkpoint.getTimeBudget() : null;
+        if (budget != null && System.nanoTime() - scanStart > budget.toNanos()) {
+            throw new BudgetExhaustedException();
+        }
+    }
+
+    /**
+     * Runs one unit of work, e.g. a class or a file, in a read action that gives way to write actions.
+     * If a write action comes in, the unit is cancelled and restarted once the write is done, so it must not
+     * change any state before it is complete. Waits for indexing to finish first.
+     * <p>
+     * Everything but the final, successful run of the unit counts as read action wait time.
+     */
+    private static <T> T readUnit(Project project, ScanStatistics stats, Callable<T> unit) {
+        long requested = System.nanoTime();
+        AtomicLong lastStart = new AtomicLong(requested);
+        T result = ReadAction.nonBlocking(() -> {
+            lastStart.set(System.nanoTime());
+            return unit.call();
+        }).inSmartMode(project).executeSynchronously();
+        stats.recordReadActionWait(lastStart.get() - requested);
+        return result;
+    }
+
+    /**
+     * Classifies the class and all its members, see {@link MinimalVisibilityCheck#getAnalyzedMembers}.
+     *
+     * @param psiClass     Class to classify, null if it was deleted meanwhile.
+     * @param changedScope Only members in this scope are classified, may be null for all members.
+     */
+    private static ClassifiedClass classifyClass(PsiClass psiClass,
+                                                 UsageSearchPrefilter prefilter,
+                                                 ChangedFilesScope changedScope) {
+        Map<String, UsageSearchPrefilter.Classification> classified = new LinkedHashMap<>();
+        if (psiClass == null || !psiClass.isValid()) {
+            return new ClassifiedClass(classified, 0);
+        }
+        int skipped = 0;
+        for (PsiMember member : MinimalVisibilityCheck.getAnalyzedMembers(psiClass)) {
+            ProgressManager.checkCanceled();
+            if (changedScope != null && !changedScope.contains(member)) continue;
+            if (hasLowestVisibility(member) || !member.isPhysical()) {
+                skipped++;
+                continue;
+            }
+            classified.put(MemberKey.of(member), prefilter.classify(member));
+        }
+        return new ClassifiedClass(classified, skipped);
+    }
+
+    /**
+     * Private members, and package-private top-level classes, can't be lowered any further.
+     */
+    private static boolean hasLowestVisibility(PsiMember member) {
+        int level = Visibility.fromModifierListOwner(member).getLevel();
+        boolean topLevelClass = member instanceof PsiClass && member.getContainingClass() == null;
+        return level == 0 || topLevelClass && level == Visibility.PACKAGE_PRIVATE.getLevel();
+    }
+
+    /**
+     * Drops graph entries of deleted files, of files that reference a member name which was not analyzed before in
+     * any module they can see, and of files in modules whose dependencies changed.
+     *
+     * @param memberNames Name → modules declaring an analyzed member with that name.
+     * @param keepNames Whether the names of the previous scan stay in the graph, so a scan of changed files
+     *                  doesn't make the next full scan walk all files again.
+     */
+    private static void invalidateOutdatedFiles(Project project,
+                                                GlobalSearchScope scope,
+                                                MinimalVisibilityScanService service,
+                                                Map<String, Set<String>> memberNames,
+                                                ModulePartition modules,
+                                                List<VirtualFile> javaFiles,
+                                                boolean keepNames,
+                                                ScanStatistics stats) {
+        UsageGraph graph = service.getUsageGraph();
+        service.invalidateIfForeignFilesChanged();
+
+        Map<String, Set<String>> names = new HashMap<>(memberNames);
+        if (keepNames) {
+            graph.getMemberNames().forEach((name, declaringModules) -> names.merge(name, declaringModules, (a, b) -> {
+                Set<String> merged = new HashSet<>(a);
+                merged.addAll(b);
+                return merged;
+            }));
+        }
+        Set<String> addedNames = graph.updateMemberNames(names);
+        Set<String> changedModules = graph.updateModuleClosures(modules.getClosures());
+        if (graph.isEmpty()) {
+            // First scan, every file is walked anyway
+            return;
+        }
+
+        Set<String> deletedUrls = new HashSet<>(graph.getFileUrls());
+        javaFiles.forEach(file -> deletedUrls.remove(file.getUrl()));
+        for (String url : deletedUrls) {
+            service.invalidate(graph.removeFile(url, true));
+        }
+        Set<String> outdatedUrls = graph.getFileUrlsInModules(changedModules);
+
+        // References to these names were not resolved when the files were walked, so walk those files again
+        outdatedUrls.addAll(readUnit(project, stats, () -> {
+            Set<String> callingUrls = new HashSet<>();
+            for (String name : addedNames) {
+                MemberReferenceIndex.getReferencingFiles(name, scope).forEach(file -> callingUrls.add(file.getUrl()));
+            }
+            return callingUrls;
+        }));
+
+        for (String url : outdatedUrls) {
+            service.invalidate(graph.removeFile(url));
+        }
+    }
+
+    /**
+     * Where the indicator is after the next round of walking files, see {@link #walkFiles}. The resolve phase goes
+     * from 0.2 to 0.5.
+     */
+    private static double nextResolveProgress(double progress) {
+        return progress + (0.5 - progress) * 0.8;
+    }
+
+    /**
+     * Walks the files that are not up to date in the graph and updates it. Files that don't call any name their module
+     * can see only contribute declarations.
+     *
+     * @param from Where the indicator is when the walk starts.
+     * @param to   Where the indicator is once all files were walked.
+     */
+    private static void walkFiles(Project project,
+                                  MinimalVisibilityScanService service,
+                                  List<List<VirtualFile>> filePartitions,
+                                  ClassHierarchySnapshot hierarchy,
+                                  ExecutorService executor,
+                                  ProgressIndicator indicator,
+                                  double from,
+                                  double to,
+                                  ScanStatistics stats) {
+        UsageGraph graph = service.getUsageGraph();
+        PsiManager psiManager = PsiManager.getInstance(project);
+        List<Computable<Void>> fileBatches = new ArrayList<>();
+        for (List<VirtualFile> batch : filePartitions) {
+            fileBatches.add(() -> {
+                for (VirtualFile file : batch) {
+                    // The graph is only changed at the very end of the read action, after the file was walked
+                    readUnit(project, stats, () -> {
+                        if (file.isValid() && psiManager.findFile(file) instanceof PsiJavaFile javaFile) {
+                            String module = ModulePartition.moduleOf(file, project);
+                            if (!graph.isUpToDate(javaFile, module)) {
+                                boolean resolveCalls = graph.callsAnyMember(
+                                        module, MemberReferenceIndex.getReferencedNames(file, project));
+                                service.invalidate(graph.updateFile(javaFile, module, resolveCalls, hierarchy));
+                            }
+                        }
+                        return null;
+                    });
+                }
+                return null;
+            });
+        }
+        runBatches(fileBatches, executor, indicator, trackProgress(
+                indicator, "files resolved", filePartitions, from, to, ignored -> {}));
+    }
+
+    /**
+     * The files that referenced any of the members when they were walked, and the files that reference one of their
+     * names now, see {@link UsageGraph#takeChangedDeclarations()}.
+     */
+    private static List<VirtualFile> findCallers(GlobalSearchScope scope, UsageGraph graph, Set<String> memberKeys) {
+        Set<VirtualFile> files = new LinkedHashSet<>();
+        VirtualFileManager fileManager = VirtualFileManager.getInstance();
+        for (String url : graph.getFileUrlsUsing(memberKeys)) {
+            VirtualFile file = fileManager.findFileByUrl(url);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        Set<String> names = new HashSet<>();
+        for (String memberKey : memberKeys) {
+            String name = MemberKey.nameOf(memberKey);
+            if (name != null && names.add(name)) {
+                files.addAll(MemberReferenceIndex.getReferencingFiles(name, scope));
+            }
+        }
+        files.removeIf(file -> !file.isValid() || !scope.contains(file));
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * The files a scan of changed files needs in the graph: the changed files, all files referencing the name of
+     * an analyzed member, and the files that referenced an analyzed member when they were last walked.
+     */
+    private static List<VirtualFile> findFilesToWalk(Project project,
+                                                     GlobalSearchScope scope,
+                                                     UsageGraph graph,
+                                                     ChangedFilesScope changedScope,
+                                                     Set<String> memberNames,
+                                                     Map<String, UsageSearchPrefilter.Classification> classifications) {
+        Set<VirtualFile> files = new LinkedHashSet<>(changedScope.getChangedFiles());
+        for (String name : memberNames) {
+            files.addAll(MemberReferenceIndex.getReferencingFiles(name, scope));
+        }
+
+        Set<String> memberKeys = new HashSet<>();
+        classifications.forEach((memberKey, classification) -> {
+            if (!classification.trivial()) {
+                memberKeys.add(memberKey);
+            }
+        });
+        VirtualFileManager fileManager = VirtualFileManager.getInstance();
+        for (String url : graph.getFileUrlsUsing(memberKeys)) {
+            VirtualFile file = fileManager.findFileByUrl(url);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        files.removeIf(file -> !file.isValid() || !scope.contains(file));
+        return new ArrayList<>(files);
+    }
 
+    /**
+     * Analyzes the classified members of the class. Members that were classified, but can't be found in the class
+     * anymore, count as skipped.
+     *
+     * @param psiClass   Class to analyze, null if it was deleted meanwhile.
+     * @param memberKeys Keys of the classified members of the class.
+     */
+    private static AnalyzedClass analyzeClass(PsiClass psiClass,
+                                              Set<String> memberKeys,
+                                              MinimalVisibilityScanService service,
+                                              Map<String, UsageSearchPrefilter.Classification> classifications,
+                                              ClassHierarchySnapshot hierarchy,
+                                              VisibilitySettings settings,
+                                              ScanStatistics stats) {
         List<VisibilityResult> results = new ArrayList<>();
+        if (psiClass == null || !psiClass.isValid()) return new AnalyzedClass(null, null, results, memberKeys.size());
+        Set<String> missing = new HashSet<>(memberKeys);
+        int skipped = 0;
+        for (PsiMember member : MinimalVisibilityCheck.getAnalyzedMembers(psiClass)) {
+            ProgressManager.checkCanceled();
+            String key = MemberKey.of(member);
+            UsageSearchPrefilter.Classification classification = classifications.get(key);
+            if (classification == null) continue;
+            missing.remove(key);
+            if (MinimalVisibilityCheck.isExcludedFromAnalysis(member, hierarchy)) {
+                // Has to stay as it is
+                skipped++;
+                continue;
+            }
 
-        // 2. For each class, check methods
-        for (PsiClass psiClass : allClasses) {
-            for (PsiMethod psiMethod : psiClass.getMethods()) {
-                Visibility currentVisibility = Visibility.fromMethod(psiMethod);
-                if (currentVisibility.getLevel() == 0) continue;
-                VisibilityInfo info = MinimalVisibilityCheck.analyzeMethodUsage(psiMethod, project);
-
-                if (info.canLowerVisibility(settings)) {
-                    results.add(new VisibilityResult(
-                            psiClass,
-                            psiMethod,
-                            currentVisibility,
-                            info.getSuggestedLevel(settings)
-                    ));
+            Visibility currentVisibility = Visibility.fromModifierListOwner(member);
+            VisibilityInfo info;
+            if (classification.trivial()) {
+                // Nothing else mentions the name, so it is private
+                info = VisibilityInfo.of(member);
+            } else {
+                // Infos are only cached once complete, so a restarted read action just computes them again
+                info = service.getCachedInfo(key);
+                if (info == null) {
+                    long start = System.nanoTime();
+                    info = service.getUsageGraph().analyze(member, hierarchy, stats);
+                    stats.recordMemberAnalysis(key, System.nanoTime() - start);
+                    service.cacheInfo(key, info);
                 }
             }
+
+            if (info.canLowerVisibility(settings)) {
+                results.add(VisibilityResult.of(
+                        psiClass,
+                        member,
+                        currentVisibility,
+                        info.getSuggestedLevel(settings)
+                ));
+            }
+        }
+        PsiFile file = psiClass.getContainingFile();
+        VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+        return new AnalyzedClass(MemberKey.ofClass(psiClass), virtualFile, results, skipped + missing.size());
+    }
+
+    /**
+     * Runs every batch on the executor and passes the results to the consumer in batch order, on the calling thread,
+     * as soon as they are available. Batches take their own read actions, see {@link #readUnit}.
+     */
+    private static <T> void runBatches(List<Computable<T>> batches,
+                                       ExecutorService executor,
+                                       ProgressIndicator indicator,
+                                       Consumer<T> consumer) {
+        List<Future<T>> futures = new ArrayList<>();
+        for (Computable<T> batch : batches) {
+            futures.add(executor.submit(() -> ProgressManager.getInstance().runProcess(
+                    batch, new SensitiveProgressWrapper(indicator))));
         }
 
-        return results;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                consumer.accept(awaitBatch(futures.get(i), indicator));
+                // Don't keep handed over results reachable
+                futures.set(i, null);
+            }
+        } finally {
+            futures.forEach(future -> {
+                if (future != null) future.cancel(true);
+            });
+        }
+    }
+
+    /**
+     * Wraps a batch consumer of {@link #runBatches} to advance the indicator from {@code from} to {@code to}
+     * while the batches are handed over. The consumer must be used for a single run only.
+     */
+    private static <T> Consumer<T> trackProgress(ProgressIndicator indicator,
+                                                 String unit,
+                                                 List<? extends List<?>> batches,
+                                                 double from,
+                                                 double to,
+                                                 Consumer<T> consumer) {
+        int total = batches.stream().mapToInt(List::size).sum();
+        Iterator<? extends List<?>> batchIterator = batches.iterator();
+        int[] done = {0};
+        indicator.setIndeterminate(false);
+        indicator.setFraction(from);
+        return result -> {
+            consumer.accept(result);
+            done[0] += batchIterator.next().size();
+            indicator.setText2(done[0] + " / " + total + " " + unit);
+            indicator.setFraction(from + (to - from) * done[0] / total);
+        };
+    }
+
+    private static <T> T awaitBatch(Future<T> future, ProgressIndicator indicator) {
+        while (true) {
+            indicator.checkCanceled();
+            try {
+                return future.get(50, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ignored) {
+                // Keep polling so that cancelling the scan is noticed
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessCanceledException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ProcessCanceledException pce) {
+                    throw pce;
+                }
+                throw new IllegalStateException("Minimal visibility scan batch failed", e.getCause());
+            }
+        }
+    }
+
+    private static <T> List<List<T>> partition(Collection<T> elements) {
+        List<List<T>> batches = new ArrayList<>();
+        List<T> current = new ArrayList<>(BATCH_SIZE);
+        for (T element : elements) {
+            current.add(element);
+            if (current.size() == BATCH_SIZE) {
+                batches.add(current);
+                current = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
     }
 }
@@ -0,0 +1,527 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.execution.ExecutionException;
+import com.intellij.lang.Language;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.BackgroundTaskQueue;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiSearchHelper;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the scans of a project and keeps the state of the last one, so the next scan only needs to look at what
+ * changed.
+ * <p>
+ * The tool window and the Tools menu action start scans through {@link #scan}, one at a time and in the background.
+ * The inspections analyze single members through {@link #analyzeMember}, or {@link #analyzeMemberIfCheap} while
+ * highlighting.
+ * <p>
+ * Holds the {@link UsageGraph} and the {@link VisibilityInfo} of every analyzed member.
+ * Whenever the graph reports that the usages of a member may have changed, its cached info is dropped.
+ * Also keeps the {@link ScanStatistics} of the last scan and of the inspection.
+ * <p>
+ * The graph and the rows of the tool window are saved after each scan and restored once per session,
+ * see {@link ScanStateStore}. The cached infos are not saved, they are quickly computed again from the graph.
+ */
+@Service(Service.Level.PROJECT)
+public final class MinimalVisibilityScanService implements Disposable {
+    private static final Logger LOG = Logger.getInstance(MinimalVisibilityScanService.class);
+    /**
+     * Members that take longer than this to analyze for the inspection are written to the log.
+     */
+    private static final long SLOW_MEMBER_MILLIS = 500;
+    private static final Key<CachedValue<VisibilityInfo>> ANALYSIS_KEY = Key.create("MinimalVisibilityAnalysis");
+    /**
+     * Languages besides Java whose files can reference Java members: plugin and framework XML, Kotlin, Groovy and
+     * JSP. Not all of them need to be installed.
+     */
+    private static final List<String> REFERENCING_LANGUAGE_IDS = List.of("XML", "kotlin", "Groovy", "JSP", "JSPX");
+
+    /**
+     * A scan to run. Requests with equal {@link #key()}s are the same scan, see {@link #scan}.
+     *
+     * @param baseRevision Revision to limit the scan to the files changed since, see
+     *                     {@link ChangedFilesScope#findChanges}, or null to scan what the options say.
+     */
+    public record ScanRequest(VisibilitySettings settings, ScanOptions options, String baseRevision) {
+
+        /**
+         * What decides whether two requests are the same scan. Taken when the request is made, so it does not change
+         * while the scan makes progress.
+         */
+        ScanKey key() {
+            ScanCheckpoint checkpoint = options.checkpoint();
+            return new ScanKey(settings,
+                    options.changedFiles(),
+                    options.removedNames(),
+                    baseRevision,
+                    options.changedFiles() == null && baseRevision == null,
+                    checkpoint != null ? checkpoint.getTimeBudget() : null,
+                    checkpoint != null && checkpoint.getDoneClassCount() > 0 ? checkpoint : null);
+        }
+    }
+
+    /**
+     * Requests with equal keys find the same results. The number of threads doesn't matter, and a new scan of the
+     * whole project is the same as a running one with the same time budget, however far that one got.
+     *
+     * @param continuedFrom Checkpoint with progress the scan continues from, compared by identity. Null for a scan
+     *                      that starts from the beginning.
+     */
+    record ScanKey(VisibilitySettings settings,
+                   Set<VirtualFile> changedFiles,
+                   Set<String> removedNames,
+                   String baseRevision,
+                   boolean fullScan,
+                   Duration timeBudget,
+                   ScanCheckpoint continuedFrom) {
+    }
+
+    /**
+     * Receives what a scan found. {@link #accept} may be called from any thread, the other methods are called
+     * on the EDT once the scan is over.
+     */
+    public interface ScanListener extends VisibilityResultSink {
+        /**
+         * @param partial Whether the scan stopped at the time budget of its checkpoint before it got through. The
+         *                results so far were handed over, and the checkpoint continues after them.
+         */
+        void scanFinished(ScanStatistics stats, boolean partial);
+
+        /**
+         * The scan was cancelled, the results so far were handed over.
+         */
+        void scanCancelled(ScanStatistics stats);
+
+        void scanFailed(Throwable error);
+    }
+
+    private final Project project;
+    private final UsageGraph usageGraph;
+    private final Map<String, VisibilityInfo> infoCache = new ConcurrentHashMap<>();
+    private final ScanStatistics inspectionStatistics = new ScanStatistics();
+    private volatile ScanStatistics lastScanStatistics;
+    private volatile boolean graphReset = false;
+    private long foreignModificationCount = -1;
+    private final ScanStateStore stateStore;
+    private final BackgroundTaskQueue scanQueue;
+    // Queued and running scans by the key of their request, guarded by itself
+    private final Map<ScanKey, ScanJob> scanJobs = new HashMap<>();
+    // Members the highlighting skipped as too expensive, analyzed one at a time
+    private final ExecutorService deferredExecutor =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("Minimal Visibility Deferred Analysis", 1);
+    private final Set<String> deferredMembers = ConcurrentHashMap.newKeySet();
+    // Held by the running scan, or while the graph is restored or saved
+    private final ReentrantLock scanLock = new ReentrantLock();
+    // Both guarded by the scan lock, like the graph
+    private boolean restored = false;
+    private ScanStateStore.SavedScan restoredScan = ScanStateStore.SavedScan.EMPTY;
+
+    public MinimalVisibilityScanService(Project project) {
+        this.project = project;
+        this.usageGraph = new UsageGraph(project, GlobalSearchScope.projectScope(project));
+        this.stateStore = new ScanStateStore(project);
+        this.scanQueue = new BackgroundTaskQueue(project, "Minimal visibility scan");
+    }
+
+    public static MinimalVisibilityScanService getInstance(Project project) {
+        return project.getService(MinimalVisibilityScanService.class);
+    }
+
+    @Override
+    public void dispose() {
+        // Deferred analyses expire with the service
+        deferredMembers.clear();
+    }
+
+    /**
+     * Runs the scan in the background, after the scans queued before it. Only one scan runs at a time.
+     * <p>
+     * If a request with an equal {@link ScanRequest#key()} is queued or running already, no second scan is started:
+     * the listener is attached to that scan instead, and gets the results it found so far right away.
+     *
+     * @return The request of the scan the listener is attached to, its checkpoint is the one that is filled.
+     */
+    public ScanRequest scan(ScanRequest request, ScanListener listener) {
+        ScanKey key = request.key();
+        ScanJob job;
+        synchronized (scanJobs) {
+            job = scanJobs.get(key);
+            if (job != null && job.addListener(listener)) return job.request;
+            job = new ScanJob(request, key);
+            job.addListener(listener);
+            scanJobs.put(key, job);
+        }
+        scanQueue.run(job);
+        return request;
+    }
+
+    /**
+     * Whether the usages of the member allow a lower visibility, cached on the member until usages of its name
+     * may have changed, see {@link MemberUsageModificationTracker}. Must be called inside a read action.
+     * <p>
+     * Timings and counters are added to {@link #getInspectionStatistics()}.
+     */
+    public VisibilityInfo analyzeMember(PsiMember member) {
+        return CachedValuesManager.getManager(project).getCachedValue(member, ANALYSIS_KEY, () -> {
+            UsageSearchPrefilter prefilter = new UsageSearchPrefilter(project, GlobalSearchScope.projectScope(project));
+            long start = System.nanoTime();
+            VisibilityInfo info = MinimalVisibilityCheck.analyzeMemberUsage(member, prefilter, inspectionStatistics);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (millis > SLOW_MEMBER_MILLIS) {
+                LOG.info("Analyzing " + MemberKey.of(member) + " for the inspection took " + millis + " ms");
+            }
+            return CachedValueProvider.Result.create(
+                    info,
+                    MemberUsageModificationTracker.getInstance(project).forName(Objects.requireNonNull(member.getName())));
+        }, false);
+    }
+
+    /**
+     * Same as {@link #analyzeMember}, but bounded in time for highlighting: if the name of the member occurs in
+     * too many files to search them right away, the member is analyzed in the background instead, one at a time,
+     * and its file is highlighted again once the result is cached. Must be called inside a read action.
+     *
+     * @return The info, or null while the member is analyzed in the background.
+     */
+    public VisibilityInfo analyzeMemberIfCheap(PsiMember member) {
+        CachedValue<VisibilityInfo> cached = member.getUserData(ANALYSIS_KEY);
+        if (cached != null && cached.hasUpToDateValue()) {
+            return cached.getValue();
+        }
+        if (isCheapToAnalyze(member)) {
+            return analyzeMember(member);
+        }
+        deferAnalysis(member);
+        return null;
+    }
+
+    /**
+     * Estimates the cost of the search from the word index: the number of files mentioning the name, up to a limit.
+     */
+    private boolean isCheapToAnalyze(PsiMember member) {
+        String name = member.getName();
+        // Private members are only searched in their own file
+        if (name == null || member.hasModifierProperty(PsiModifier.PRIVATE)) return true;
+        PsiSearchHelper.SearchCostResult cost = PsiSearchHelper.getInstance(project).isCheapEnoughToSearch(
+                name, GlobalSearchScope.projectScope(project), member.getContainingFile(), null);
+        return cost != PsiSearchHelper.SearchCostResult.TOO_MANY_OCCURRENCES;
+    }
+
+    private void deferAnalysis(PsiMember member) {
+        String memberKey = MemberKey.of(member);
+        if (!deferredMembers.add(memberKey)) return; // queued already
+        inspectionStatistics.recordDeferred();
+        SmartPsiElementPointer<PsiMember> pointer = SmartPointerManager.createPointer(member);
+        ReadAction.nonBlocking(() -> {
+                    PsiMember current = pointer.getElement();
+                    if (current == null) return null;
+                    analyzeMember(current);
+                    // From now on, the next highlighting pass finds the result, or queues the member again
+                    deferredMembers.remove(memberKey);
+                    return current.getContainingFile();
+                })
+                .inSmartMode(project)
+                .expireWith(this)
+                .finishOnUiThread(ModalityState.any(), file -> {
+                    if (file != null && file.isValid()) {
+                        DaemonCodeAnalyzer.getInstance(project).restart(file);
+                    }
+                })
+                .submit(deferredExecutor)
+                .onProcessed(file -> deferredMembers.remove(memberKey));
+    }
+
+    /**
+     * Counters of the inspection since the project was opened.
+     */
+    public ScanStatistics getInspectionStatistics() {
+        return inspectionStatistics;
+    }
+
+    /**
+     * Counters of the last scan, or null if there was none yet.
+     */
+    public ScanStatistics getLastScanStatistics() {
+        return lastScanStatistics;
+    }
+
+    void setLastScanStatistics(ScanStatistics stats) {
+        lastScanStatistics = stats;
+    }
+
+    UsageGraph getUsageGraph() {
+        return usageGraph;
+    }
+
+    VisibilityInfo getCachedInfo(String memberKey) {
+        return infoCache.get(memberKey);
+    }
+
+    void cacheInfo(String memberKey, VisibilityInfo info) {
+        infoCache.put(memberKey, info);
+    }
+
+    /**
+     * Drops the cached info of the given members.
+     *
+     * @param memberKeys Keys as returned by the {@link UsageGraph}. Null means the class hierarchy changed,
+     *                   which throws away the whole graph and cache.
+     */
+    void invalidate(Set<String> memberKeys) {
+        if (memberKeys == null) {
+            usageGraph.clear();
+            infoCache.clear();
+            graphReset = true;
+        } else if (!memberKeys.isEmpty()) {
+            infoCache.keySet().removeAll(memberKeys);
+        }
+    }
+
+    /**
+     * Returns whether the graph was thrown away since the last call, so files walked before need to be walked again.
+     */
+    boolean consumeGraphReset() {
+        boolean reset = graphReset;
+        graphReset = false;
+        return reset;
+    }
+
+    /**
+     * Usages from non-Java files are not tracked per file, so a change to a file that can reference Java members
+     * drops all cached infos. Edits to other files, e.g. Markdown or properties, keep them.
+     */
+    void invalidateIfForeignFilesChanged() {
+        PsiModificationTracker tracker = PsiModificationTracker.getInstance(project);
+        long count = 0;
+        for (String languageId : REFERENCING_LANGUAGE_IDS) {
+            Language language = Language.findLanguageByID(languageId);
+            if (language != null) {
+                count += tracker.forLanguage(language).getModificationCount();
+            }
+        }
+        if (count != foreignModificationCount) {
+            foreignModificationCount = count;
+            usageGraph.clearForeignUsages();
+            infoCache.clear();
+        }
+    }
+
+    /**
+     * Waits until no other scan uses the graph, and keeps others from using it until {@link #unlockScan()}.
+     * The service state is shared, so only one scan per project runs at a time. Stops waiting if the progress
+     * is cancelled.
+     */
+    void lockScan() {
+        ProgressIndicatorUtils.awaitWithCheckCanceled(scanLock);
+    }
+
+    void unlockScan() {
+        scanLock.unlock();
+    }
+
+    /**
+     * Restores the graph of the last session, once, before the first scan uses it.
+     * Must be called from a background thread without holding a read action.
+     */
+    void restoreState() {
+        scanLock.lock();
+        try {
+            if (restored) return;
+            restored = true;
+            try {
+                restoredScan = stateStore.load(usageGraph);
+                LOG.info("Restored " + restoredScan.results().size() + " minimal visibility results and "
+                        + usageGraph.getFileUrls().size() + " files of the usage graph");
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Could not restore the last minimal visibility scan, starting over", e);
+                usageGraph.clear();
+                usageGraph.updateMemberNames(Map.of());
+                usageGraph.updateModuleClosures(Map.of());
+                restoredScan = ScanStateStore.SavedScan.EMPTY;
+            }
+        } finally {
+            scanLock.unlock();
+        }
+    }
+
+    /**
+     * Takes the scan saved in the last session, restoring it first if needed. Later calls return an empty scan.
+     * Must be called from a background thread without holding a read action.
+     */
+    ScanStateStore.SavedScan takeRestoredScan() {
+        scanLock.lock();
+        try {
+            restoreState();
+            ScanStateStore.SavedScan scan = restoredScan;
+            restoredScan = ScanStateStore.SavedScan.EMPTY;
+            return scan;
+        } finally {
+            scanLock.unlock();
+        }
+    }
+
+    /**
+     * Saves the rows of the tool window and the graph in the background, so the next session can start from them.
+     *
+     * @param settings   Settings the rows were found with.
+     * @param checkpoint Progress of the scan that found the rows, null if not known.
+     */
+    public void saveState(VisibilitySettings settings, List<VisibilityResult> results, ScanCheckpoint checkpoint) {
+        List<VisibilityResult> rows = List.copyOf(results);
+        ReadAction.nonBlocking(() -> {
+                    List<ScanStateStore.StoredResult> stored = new ArrayList<>();
+                    for (VisibilityResult result : rows) {
+                        ScanStateStore.StoredResult storedResult = ScanStateStore.StoredResult.of(result);
+                        if (storedResult != null) {
+                            stored.add(storedResult);
+                        }
+                    }
+                    return stored;
+                })
+                .submit(AppExecutorUtil.getAppExecutorService())
+                .onSuccess(stored -> writeState(new ScanStateStore.SavedScan(settings, stored, checkpoint)));
+    }
+
+    private void writeState(ScanStateStore.SavedScan scan) {
+        // Waits for a running scan, the graph must not change while it is written
+        scanLock.lock();
+        try {
+            // Otherwise an empty graph would replace the saved one before it was ever restored
+            restoreState();
+            stateStore.save(scan, usageGraph);
+        } catch (IOException e) {
+            LOG.warn("Could not save the minimal visibility scan", e);
+        } finally {
+            scanLock.unlock();
+        }
+    }
+
+    /**
+     * A queued or running scan and everyone waiting for it. Keeps the results found so far for listeners that
+     * attach late, until the scan is over.
+     */
+    private final class ScanJob extends Task.Backgroundable {
+        private final ScanRequest request;
+        private final ScanKey key;
+        private final ScanStatistics stats = new ScanStatistics();
+        private volatile boolean partial = false;
+        // All guarded by this job
+        private final List<VisibilityResult> results = new ArrayList<>();
+        private final List<ScanListener> listeners = new ArrayList<>();
+        private boolean over = false;
+
+        ScanJob(ScanRequest request, ScanKey key) {
+            super(project, "Minimal visibility scan", true);
+            this.request = request;
+            this.key = key;
+        }
+
+        /**
+         * @return False if the scan is over already, so a new one is needed.
+         */
+        synchronized boolean addListener(ScanListener listener) {
+            if (over) return false;
+            if (!results.isEmpty()) {
+                listener.accept(List.copyOf(results));
+            }
+            listeners.add(listener);
+            return true;
+        }
+
+        private void publish(List<VisibilityResult> batch) {
+            List<ScanListener> current;
+            synchronized (this) {
+                results.addAll(batch);
+                current = List.copyOf(listeners);
+            }
+            // Outside the lock, listeners may start or join scans. A listener that joins now gets the batch with the
+            // results so far instead.
+            for (ScanListener listener : current) {
+                listener.accept(batch);
+            }
+        }
+
+        /**
+         * Ends the job, listeners attached afterward start a new scan. Called on the EDT.
+         */
+        private List<ScanListener> finish() {
+            synchronized (scanJobs) {
+                scanJobs.remove(key, this);
+            }
+            synchronized (this) {
+                over = true;
+                results.clear();
+                return List.copyOf(listeners);
+            }
+        }
+
+        @Override
+        public void run(@NotNull ProgressIndicator indicator) {
+            ScanOptions options = request.options();
+            if (request.baseRevision() != null) {
+                indicator.setText("Finding changed files...");
+                try {
+                    String baseRevision = request.baseRevision();
+                    ChangedFilesScope.Changes changes = ChangedFilesScope.findChanges(project, baseRevision);
+                    options = options.withChangedFiles(changes.files(), changes.removedNames());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }
+            indicator.setText("Scanning project for minimal visibility issues...");
+            // runScan only takes short read actions that give way to typing
+            partial = !MinimalVisibilityScanHelper.runScan(
+                    project, request.settings(), options, stats, this::publish, indicator);
+        }
+
+        @Override
+        public void onSuccess() {
+            finish().forEach(listener -> listener.scanFinished(stats, partial));
+        }
+
+        @Override
+        public void onCancel() {
+            finish().forEach(listener -> listener.scanCancelled(stats));
+        }
+
+        @Override
+        public void onThrowable(@NotNull Throwable error) {
+            super.onThrowable(error);
+            finish().forEach(listener -> listener.scanFailed(error));
+        }
+    }
+}
@@ -9,6 +9,11 @@ import org.jetbrains.annotations.NotNull;
 
 public class MinimalVisibilityToolWindowFactory implements ToolWindowFactory {
 
+    /**
+     * Id of the tool window in the plugin.xml.
+     */
+    public static final String TOOL_WINDOW_ID = "Minimal Visibility Checker";
+
     @Override
     public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
         // Create the main panel for our tool window
@@ -17,6 +22,7 @@ public class MinimalVisibilityToolWindowFactory implements ToolWindowFactory {
         // Wrap it in IntelliJ’s content system
         ContentFactory contentFactory = ContentFactory.getInstance();
         Content content = contentFactory.createContent(panel.getMainComponent(), "", false);
+        content.putUserData(MinimalVisibilityToolWindowPanel.PANEL_KEY, panel);
         toolWindow.getContentManager().addContent(content);
     }
 }
@@ -1,39 +1,146 @@
 package net.justonedev.codestyle.checks;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.OpenFileDescriptor;
-import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
-import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.ui.ComboBox;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.SearchTextField;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.components.JBTabbedPane;
+import com.intellij.ui.components.JBTextArea;
+import com.intellij.ui.content.Content;
 import com.intellij.ui.table.JBTable;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.table.TableColumn;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MinimalVisibilityToolWindowPanel {
+    /**
+     * The panel of a tool window content, see {@link #find}.
+     */
+    static final Key<MinimalVisibilityToolWindowPanel> PANEL_KEY = Key.create("MinimalVisibilityToolWindowPanel");
+
     private final JPanel mainPanel;
     private final VisibilityTableModel tableModel;
+    private final JBLabel statusLabel;
+    private final JBTextArea statisticsArea;
+    private final JBCheckBox liveUpdatesBox;
+    // Settings of the scan the table shows, the results are checked against them again before applying
+    private VisibilitySettings scanSettings = VisibilitySettings.DEFAULT;
+    // Once a scan was started, the rows of the last session are not shown anymore
+    private boolean scanStarted = false;
+    // Progress of the scan of the whole project the table shows, null if it shows a scan of changed files
+    private ScanCheckpoint checkpoint;
+    private int parallelism = ScanOptions.DEFAULT.parallelism();
+    // Key of the scan the table is filled by right now and where its results go, both null if none
+    private MinimalVisibilityScanService.ScanKey runningKey;
+    private TablePublisher runningPublisher;
+
+    /**
+     * Rows of the last session, found again after a restart.
+     *
+     * @param staleFiles Files that changed while the IDE was closed.
+     * @param checkpoint Progress of the scan that found the rows, may be null.
+     */
+    private record RestoredRows(VisibilitySettings settings,
+                                List<VisibilityResult> results,
+                                Set<VirtualFile> staleFiles,
+                                ScanCheckpoint checkpoint) {
+    }
 
     public MinimalVisibilityToolWindowPanel(Project project) {
         mainPanel = new JPanel(new BorderLayout());
 
-        // Top panel with the "Inspect Code..." button
+        // Top panel with the "Inspect Code..." and apply buttons
         JPanel topPanel = new JPanel();
         JButton inspectButton = new JButton("Inspect Code...");
+        JButton applySelectedButton = new JButton("Apply Selected");
+        JButton applyAllButton = new JButton("Apply All");
+        JButton rescanStaleButton = new JButton("Rescan Stale");
+        JButton continueButton = new JButton("Continue Scan");
         topPanel.add(inspectButton);
+        topPanel.add(continueButton);
+        topPanel.add(applySelectedButton);
+        topPanel.add(applyAllButton);
+        topPanel.add(rescanStaleButton);
+        liveUpdatesBox = new JBCheckBox("Live updates", VisibilityMonitor.getInstance(project).isStarted());
+        topPanel.add(liveUpdatesBox);
+
+        // Filter and grouping of the rows, both work on precomputed values and stay fast for large tables
+        SearchTextField filterField = new SearchTextField(false);
+        ComboBox<VisibilityTableModel.GroupBy> groupByBox = new ComboBox<>(VisibilityTableModel.GroupBy.values());
+        topPanel.add(filterField);
+        topPanel.add(groupByBox);
         mainPanel.add(topPanel, BorderLayout.NORTH);
 
-        // Table to show results
+        // Bottom label with a summary of the last scan
+        statusLabel = new JBLabel();
+        mainPanel.add(statusLabel, BorderLayout.SOUTH);
+
+        // Table to show results, and the numbers of the last scan and the inspection next to it
         tableModel = new VisibilityTableModel();
         JBTable resultsTable = new JBTable(tableModel);
-        mainPanel.add(new JBScrollPane(resultsTable), BorderLayout.CENTER);
+        filterField.addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent e) {
+                tableModel.setFilter(filterField.getText());
+            }
+        });
+        groupByBox.addActionListener(e ->
+                tableModel.setGroupBy((VisibilityTableModel.GroupBy) groupByBox.getSelectedItem()));
+        // The model sorts by itself, a row sorter would sort all rows again after every batch of a scan
+        resultsTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = resultsTable.columnAtPoint(e.getPoint());
+                if (column < 0) return;
+                tableModel.sortBy(resultsTable.convertColumnIndexToModel(column));
+                for (int i = 0; i < resultsTable.getColumnCount(); i++) {
+                    TableColumn tableColumn = resultsTable.getColumnModel().getColumn(i);
+                    tableColumn.setHeaderValue(tableModel.getColumnName(tableColumn.getModelIndex()));
+                }
+                resultsTable.getTableHeader().repaint();
+            }
+        });
+        statisticsArea = new JBTextArea();
+        statisticsArea.setEditable(false);
+        JBTabbedPane tabs = new JBTabbedPane();
+        tabs.addTab("Results", new JBScrollPane(resultsTable));
+        tabs.addTab("Statistics", new JBScrollPane(statisticsArea));
+        // The inspection keeps counting in the background, so show the current numbers whenever the tab is opened
+        tabs.addChangeListener(e -> {
+            if (tabs.getSelectedIndex() == 1) {
+                updateStatistics(project);
+            }
+        });
+        mainPanel.add(tabs, BorderLayout.CENTER);
 
         inspectButton.addActionListener(e -> {
             // 1. Show your config dialog
@@ -48,33 +155,45 @@ public class MinimalVisibilityToolWindowPanel {
             String packagePrivateSetting = dialog.getPackagePrivateSelection();
 
             VisibilitySettings settings = new VisibilitySettings(protectedSetting, packagePrivateSetting);
+            boolean changedFilesScope = dialog.isChangedFilesScope();
+            parallelism = dialog.getParallelism();
+            checkpoint = changedFilesScope ? null : new ScanCheckpoint(dialog.getTimeBudget());
 
-            // 2. Run the scanning logic in background
-            ProgressManager.getInstance().run(new Task.Backgroundable(project, "Minimal visibility scan") {
-                @Override
-                public void run(@NotNull ProgressIndicator indicator) {
-                    // Optionally set some text for the progress bar
-                    indicator.setText("Scanning project for minimal visibility issues...");
-
-                    // If your runScan method uses PSI, consider wrapping it in a read action:
-                    List<VisibilityResult> results = ApplicationManager.getApplication().runReadAction(
-                            (Computable<List<VisibilityResult>>) () -> {
-                                // Actual scanning logic
-                                return MinimalVisibilityScanHelper.runScan(project, settings);
-                            }
-                    );
-
-                    // 3. Update the table model on the EDT
-                    ApplicationManager.getApplication().invokeLater(() -> tableModel.setResults(results));
-                }
-            });
+            // 2. Run the scanning logic in background, results show up in the table as they are found
+            startNewScan(project, settings, changedFilesScope ? dialog.getBaseRevision() : null);
         });
 
+        applySelectedButton.addActionListener(e -> {
+            List<VisibilityResult> selected = new ArrayList<>();
+            for (int row : resultsTable.getSelectedRows()) {
+                VisibilityResult result = tableModel.getResultAt(resultsTable.convertRowIndexToModel(row));
+                if (result != null) {
+                    selected.add(result);
+                }
+            }
+            applyResults(project, selected);
+        });
+        applyAllButton.addActionListener(e -> applyResults(project, tableModel.getVisibleResults()));
+        rescanStaleButton.addActionListener(e -> rescanStale(project));
+        continueButton.addActionListener(e -> continueScan(project));
+        liveUpdatesBox.addActionListener(e -> {
+            if (liveUpdatesBox.isSelected()) {
+                startMonitor(project);
+            } else {
+                VisibilityMonitor.getInstance(project).stop();
+            }
+        });
 
         // Add a mouse listener to handle double-click navigation
         resultsTable.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
+                int clickedRow = resultsTable.rowAtPoint(e.getPoint());
+                if (e.getClickCount() == 1 && clickedRow >= 0 && SwingUtilities.isLeftMouseButton(e)
+                        && tableModel.isGroupRow(resultsTable.convertRowIndexToModel(clickedRow))) {
+                    tableModel.toggleGroup(resultsTable.convertRowIndexToModel(clickedRow));
+                    return;
+                }
                 // Check for double-click and left mouse button
                 if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
                     int row = resultsTable.rowAtPoint(e.getPoint());
@@ -84,14 +203,11 @@ public class MinimalVisibilityToolWindowPanel {
                         int modelRow = resultsTable.convertRowIndexToModel(row);
 
                         VisibilityResult result = tableModel.getResultAt(modelRow);
-                        if (result != null && result.getFile() != null) {
-                            // Example: navigate to file offset, or line/column
-                            // if your result class tracks a line number, convert to offset, etc.
-
-                            // Suppose result has getOffset() – a text offset in the file
+                        if (result != null && result.getVirtualFile() != null) {
+                            // The offset resolves the member, so it is up-to-date after edits
                             new OpenFileDescriptor(
                                     project,
-                                    result.getFile().getVirtualFile(),
+                                    result.getVirtualFile(),
                                     result.getOffset()  // or line/column if you prefer
                             ).navigate(true);
                         }
@@ -99,9 +215,340 @@ public class MinimalVisibilityToolWindowPanel {
                 }
             }
         });
+
+        restoreLastScan(project);
     }
 
     public JComponent getMainComponent() {
         return mainPanel;
     }
+
+    /**
+     * The panel shown in the tool window, or null if its content was not created yet.
+     */
+    static MinimalVisibilityToolWindowPanel find(ToolWindow toolWindow) {
+        for (Content content : toolWindow.getContentManager().getContents()) {
+            MinimalVisibilityToolWindowPanel panel = content.getUserData(PANEL_KEY);
+            if (panel != null) return panel;
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the table with a scan of the whole project, without a time budget. Must be called on the EDT.
+     * Does nothing if the table is filled by such a scan with the same settings already.
+     */
+    void scanProject(Project project, VisibilitySettings settings) {
+        ScanOptions options = ScanOptions.DEFAULT.withCheckpoint(new ScanCheckpoint(null));
+        MinimalVisibilityScanService.ScanRequest request =
+                new MinimalVisibilityScanService.ScanRequest(settings, options, null);
+        if (request.key().equals(runningKey)) return;
+        parallelism = options.parallelism();
+        checkpoint = new ScanCheckpoint(null);
+        startNewScan(project, settings, null);
+    }
+
+    /**
+     * Clears the table and scans with the threads and checkpoint of the table.
+     *
+     * @param baseRevision Revision to scan the changed files since, see {@link ChangedFilesScope#findChanges},
+     *                     or null to scan the whole project.
+     */
+    private void startNewScan(Project project, VisibilitySettings settings, String baseRevision) {
+        scanSettings = settings;
+        scanStarted = true;
+        if (liveUpdatesBox.isSelected()) {
+            startMonitor(project);
+        }
+        tableModel.clear();
+        statusLabel.setText("Scanning...");
+        startScan(project, baseRevision);
+    }
+
+    /**
+     * Runs a scan with the settings, threads and checkpoint of the table in the background. Results are added to the
+     * table as they are found.
+     *
+     * @param baseRevision Revision to scan the changed files since, see {@link ChangedFilesScope#findChanges},
+     *                     or null to scan the whole project.
+     */
+    private void startScan(Project project, String baseRevision) {
+        ScanOptions options = new ScanOptions(parallelism).withCheckpoint(checkpoint);
+        MinimalVisibilityScanService.ScanRequest request =
+                new MinimalVisibilityScanService.ScanRequest(scanSettings, options, baseRevision);
+        // A scan that is still running keeps going for others, but doesn't touch the table anymore
+        if (runningPublisher != null) {
+            runningPublisher.close();
+        }
+        TablePublisher publisher = new TablePublisher(tableModel);
+        runningPublisher = publisher;
+        MinimalVisibilityScanService service = MinimalVisibilityScanService.getInstance(project);
+        runningKey = request.key();
+        MinimalVisibilityScanService.ScanRequest runningScan = service.scan(request, new MinimalVisibilityScanService.ScanListener() {
+            @Override
+            public void accept(List<VisibilityResult> results) {
+                publisher.accept(results);
+            }
+
+            @Override
+            public void scanFinished(ScanStatistics stats, boolean partial) {
+                if (!scanOver(publisher)) return;
+                if (partial) {
+                    statusLabel.setText("Time budget used up, " + checkpoint.getDoneClassCount() + " classes done, "
+                            + tableModel.getResults().size() + " suggestions so far. Continue Scan goes on from here.");
+                } else {
+                    statusLabel.setText(tableModel.getResults().size() + " suggestions. " + stats.getSummary());
+                }
+                updateStatistics(project);
+                saveState(project);
+            }
+
+            @Override
+            public void scanCancelled(ScanStatistics stats) {
+                if (!scanOver(publisher)) return;
+                // Everything found so far stays in the table, and the checkpoint continues after it
+                statusLabel.setText("Scan cancelled, " + tableModel.getResults().size() + " suggestions so far.");
+                updateStatistics(project);
+                if (checkpoint != null) {
+                    saveState(project);
+                }
+            }
+
+            @Override
+            public void scanFailed(Throwable error) {
+                if (!scanOver(publisher)) return;
+                statusLabel.setText("Scan failed: " + error.getMessage());
+            }
+        });
+        // An equal scan that was running already fills its own checkpoint, which the table continues from then
+        checkpoint = runningScan.options().checkpoint();
+    }
+
+    /**
+     * Ends the scan the publisher belongs to and adds its last results to the table. Must be called on the EDT.
+     *
+     * @return False if another scan fills the table by now, the scan must not touch the table then.
+     */
+    private boolean scanOver(TablePublisher publisher) {
+        if (runningPublisher != publisher) return false;
+        runningKey = null;
+        runningPublisher = null;
+        publisher.flush();
+        return true;
+    }
+
+    /**
+     * Continues the scan of the whole project the table shows where it stopped. Classes of files that changed since
+     * they were done are analyzed again, and their rows are replaced.
+     */
+    private void continueScan(Project project) {
+        if (checkpoint == null || checkpoint.isComplete()) {
+            statusLabel.setText("Nothing to continue, the last scan of the whole project is complete.");
+            return;
+        }
+        // The checkpoint only notices changes on disk
+        FileDocumentManager.getInstance().saveAllDocuments();
+        Set<VirtualFile> changedFiles = checkpoint.dropChangedFiles();
+        tableModel.removeResults(changedFiles);
+        Set<VirtualFile> staleFiles = new HashSet<>(tableModel.getStaleFiles());
+        staleFiles.removeAll(changedFiles);
+        tableModel.setStaleFiles(staleFiles);
+        scanStarted = true;
+        statusLabel.setText("Continuing the scan after " + checkpoint.getDoneClassCount() + " classes...");
+        startScan(project, null);
+    }
+
+    private void saveState(Project project) {
+        MinimalVisibilityScanService.getInstance(project).saveState(scanSettings, tableModel.getResults(), checkpoint);
+    }
+
+    /**
+     * Lowers the visibility of the given results in the background, applied results are removed from the table.
+     */
+    private void applyResults(Project project, List<VisibilityResult> results) {
+        if (results.isEmpty()) return;
+        if (Messages.showYesNoDialog(project,
+                "Lower the visibility of " + results.size() + " members? This can be undone in one step.",
+                "Apply Visibility Suggestions", null) != Messages.YES) {
+            return;
+        }
+        statusLabel.setText("Applying " + results.size() + " suggestions...");
+        ProgressManager.getInstance().run(new BulkVisibilityApplier(project, results, scanSettings, outcome -> {
+            tableModel.removeResults(outcome.applied());
+            statusLabel.setText("Applied " + outcome.applied().size() + " suggestions, "
+                    + outcome.skipped() + " skipped because the code changed.");
+            if (!outcome.applied().isEmpty()) {
+                saveState(project);
+            }
+        }));
+    }
+
+    /**
+     * Keeps the table current while editing, with the settings of the scan it shows.
+     */
+    private void startMonitor(Project project) {
+        VisibilityMonitor.getInstance(project).start(scanSettings, (scope, results) -> {
+            tableModel.replaceResults(scope, results);
+            statusLabel.setText(tableModel.getResults().size() + " suggestions, updated after changes to "
+                    + scope.getChangedFiles().size() + " files.");
+        });
+    }
+
+    /**
+     * Shows the rows of the last session, unless a scan was started meanwhile.
+     * Rows of files that changed while the IDE was closed are marked stale.
+     */
+    private void restoreLastScan(Project project) {
+        MinimalVisibilityScanService service = MinimalVisibilityScanService.getInstance(project);
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            // Reading the saved state waits for a running scan, so it must not happen inside a read action
+            ScanStateStore.SavedScan saved = service.takeRestoredScan();
+            if (saved.results().isEmpty() && saved.checkpoint() == null) return;
+            ReadAction.nonBlocking(() -> resolve(project, saved))
+                    .inSmartMode(project)
+                    .finishOnUiThread(ModalityState.any(), this::showRestored)
+                    .submit(AppExecutorUtil.getAppExecutorService());
+        });
+    }
+
+    private static RestoredRows resolve(Project project, ScanStateStore.SavedScan saved) {
+        List<VisibilityResult> results = new ArrayList<>();
+        Set<VirtualFile> staleFiles = new HashSet<>();
+        for (ScanStateStore.StoredResult stored : saved.results()) {
+            ProgressManager.checkCanceled();
+            if (stored.isStale()) {
+                VirtualFile file = VirtualFileManager.getInstance().findFileByUrl(stored.fileUrl());
+                if (file != null && file.isValid()) {
+                    staleFiles.add(file);
+                }
+            }
+            VisibilityResult result = stored.resolve(project);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return new RestoredRows(saved.settings(), results, staleFiles, saved.checkpoint());
+    }
+
+    private void showRestored(RestoredRows rows) {
+        if (scanStarted) return;
+        scanSettings = rows.settings();
+        checkpoint = rows.checkpoint();
+        tableModel.setResults(rows.results());
+        tableModel.setStaleFiles(rows.staleFiles());
+        statusLabel.setText("Restored " + rows.results().size() + " suggestions of the last scan"
+                + (rows.staleFiles().isEmpty() ? "." : ", " + rows.staleFiles().size() + " files changed since.")
+                + (checkpoint != null && !checkpoint.isComplete() ? " The scan did not finish, see Continue Scan." : ""));
+    }
+
+    /**
+     * Scans only the files that changed since the rows were found, and replaces the rows the scan looked at.
+     */
+    private void rescanStale(Project project) {
+        Set<VirtualFile> staleFiles = tableModel.getStaleFiles();
+        if (staleFiles.isEmpty()) {
+            statusLabel.setText("No stale suggestions.");
+            return;
+        }
+        statusLabel.setText("Rescanning " + staleFiles.size() + " changed files...");
+        // The scan also looks at the members the files reference, the rows of those are replaced as well
+        ReadAction.nonBlocking(() -> ChangedFilesScope.of(
+                        project, staleFiles, Set.of(), GlobalSearchScope.projectScope(project)))
+                .inSmartMode(project)
+                .finishOnUiThread(ModalityState.any(), scope -> rescanStale(project, staleFiles, scope))
+                .submit(AppExecutorUtil.getAppExecutorService());
+    }
+
+    /**
+     * @param scope What the rescan looks at, its rows are replaced.
+     */
+    private void rescanStale(Project project, Set<VirtualFile> staleFiles, ChangedFilesScope scope) {
+        ScanOptions options = ScanOptions.DEFAULT.withChangedFiles(staleFiles);
+        MinimalVisibilityScanService.ScanRequest request =
+                new MinimalVisibilityScanService.ScanRequest(scanSettings, options, null);
+        List<VisibilityResult> results = Collections.synchronizedList(new ArrayList<>());
+        MinimalVisibilityScanService service = MinimalVisibilityScanService.getInstance(project);
+        service.scan(request, new MinimalVisibilityScanService.ScanListener() {
+            @Override
+            public void accept(List<VisibilityResult> batch) {
+                results.addAll(batch);
+            }
+
+            @Override
+            public void scanFinished(ScanStatistics stats, boolean partial) {
+                // Unless a full scan replaced the rows meanwhile
+                if (tableModel.getStaleFiles() != staleFiles) return;
+                tableModel.replaceStaleResults(scope, List.copyOf(results));
+                statusLabel.setText(tableModel.getResults().size() + " suggestions. " + stats.getSummary());
+                updateStatistics(project);
+                saveState(project);
+            }
+
+            @Override
+            public void scanCancelled(ScanStatistics stats) {
+                statusLabel.setText("Rescan cancelled, the stale suggestions are kept.");
+            }
+
+            @Override
+            public void scanFailed(Throwable error) {
+                statusLabel.setText("Scan failed: " + error.getMessage());
+            }
+        });
+    }
+
+    private void updateStatistics(Project project) {
+        MinimalVisibilityScanService service = MinimalVisibilityScanService.getInstance(project);
+        ScanStatistics lastScan = service.getLastScanStatistics();
+        statisticsArea.setText("Last scan\n"
+                + (lastScan != null ? lastScan.getReport() : "No scan yet\n")
+                + "\nInspection since the project was opened\n"
+                + service.getInspectionStatistics().getReport());
+        statisticsArea.setCaretPosition(0);
+    }
+
+    /**
+     * Collects results from the scan thread and appends them to the table on the EDT.
+     * Batches that arrive while an update is already scheduled are appended together, with one insert event.
+     */
+    private static class TablePublisher implements VisibilityResultSink {
+        private final VisibilityTableModel tableModel;
+        private final Queue<VisibilityResult> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // Only touched on the EDT
+        private boolean closed = false;
+
+        TablePublisher(VisibilityTableModel tableModel) {
+            this.tableModel = tableModel;
+        }
+
+        @Override
+        public void accept(List<VisibilityResult> results) {
+            pending.addAll(results);
+            if (scheduled.compareAndSet(false, true)) {
+                ApplicationManager.getApplication().invokeLater(this::flush, ModalityState.any());
+            }
+        }
+
+        /**
+         * Appends all pending results. Must be called on the EDT.
+         */
+        void flush() {
+            scheduled.set(false);
+            List<VisibilityResult> batch = new ArrayList<>();
+            VisibilityResult result;
+            while ((result = pending.poll()) != null) {
+                batch.add(result);
+            }
+            if (!closed) {
+                tableModel.addResults(batch);
+            }
+        }
+
+        /**
+         * Drops all results from now on, the table belongs to another scan. Must be called on the EDT.
+         */
+        void close() {
+            closed = true;
+        }
+    }
 }
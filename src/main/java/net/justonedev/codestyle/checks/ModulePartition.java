@@ -0,0 +1,101 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The modules of a project, what each of them can see, and the classes of a scan split by module.
+ * <p>
+ * A member can only be used in its own module and in the modules depending on it. So a file only needs to resolve
+ * references to names declared in its own dependency closure, see {@link UsageGraph#callsAnyMember}, and unrelated
+ * modules don't share any work. Files and classes outside of any module belong to {@link #NO_MODULE}, which sees
+ * and is seen by everything.
+ */
+final class ModulePartition {
+    /**
+     * Module name of everything that is not part of a module.
+     */
+    static final String NO_MODULE = "";
+
+    private final Map<String, Set<String>> closures;
+    private final Map<String, List<PsiClass>> classesByModule;
+
+    private ModulePartition(Map<String, Set<String>> closures, Map<String, List<PsiClass>> classesByModule) {
+        this.closures = closures;
+        this.classesByModule = classesByModule;
+    }
+
+    /**
+     * Reads the module dependencies and splits the classes by module. Must be called inside a read action.
+     */
+    static ModulePartition of(Project project, Collection<PsiClass> classes) {
+        Map<String, Set<String>> closures = new HashMap<>();
+        for (Module module : ModuleManager.getInstance(project).getModules()) {
+            // Contains the module itself, and test dependencies as well
+            Set<Module> dependencies = new HashSet<>();
+            ModuleUtilCore.getDependencies(module, dependencies);
+            Set<String> names = new HashSet<>();
+            for (Module dependency : dependencies) {
+                names.add(dependency.getName());
+            }
+            closures.put(module.getName(), Set.copyOf(names));
+        }
+
+        Map<String, List<PsiClass>> classesByModule = new LinkedHashMap<>();
+        for (PsiClass psiClass : classes) {
+            ProgressManager.checkCanceled();
+            String module = psiClass.isValid() ? moduleOf(psiClass) : NO_MODULE;
+            classesByModule.computeIfAbsent(module, key -> new ArrayList<>()).add(psiClass);
+        }
+        return new ModulePartition(Map.copyOf(closures), classesByModule);
+    }
+
+    /**
+     * Module name → names of the module itself and of all modules it depends on, directly or not.
+     */
+    Map<String, Set<String>> getClosures() {
+        return closures;
+    }
+
+    int getModuleCount() {
+        return closures.size();
+    }
+
+    /**
+     * Module name → classes of the scan in that module, in the order they were passed in.
+     */
+    Map<String, List<PsiClass>> getClassesByModule() {
+        return classesByModule;
+    }
+
+    /**
+     * Must be called inside a read action.
+     */
+    static String moduleOf(PsiElement element) {
+        Module module = ModuleUtilCore.findModuleForPsiElement(element);
+        return module != null ? module.getName() : NO_MODULE;
+    }
+
+    /**
+     * Must be called inside a read action.
+     */
+    static String moduleOf(VirtualFile file, Project project) {
+        Module module = ModuleUtilCore.findModuleForFile(file, project);
+        return module != null ? module.getName() : NO_MODULE;
+    }
+}
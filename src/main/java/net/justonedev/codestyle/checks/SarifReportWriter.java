@@ -0,0 +1,46 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.project.Project;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a SARIF 2.1.0 log with a single run. The results array is streamed, header and footer are fixed.
+ */
+class SarifReportWriter extends ScanReportWriter {
+
+    private static final String RULE_ID = "MinimalVisibility";
+
+    SarifReportWriter(Project project, Writer writer) {
+        super(project, writer);
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        writer.write("{\"$schema\":\"https://json.schemastore.org/sarif-2.1.0.json\",\"version\":\"2.1.0\",\"runs\":[{"
+                + "\"tool\":{\"driver\":{\"name\":\"Codestyle\",\"informationUri\":\"https://justonedev.net\",\"rules\":[{"
+                + "\"id\":\"" + RULE_ID + "\","
+                + "\"shortDescription\":{\"text\":\"Visibility of the member is higher than its usages require\"}"
+                + "}]}},"
+                + "\"results\":[\n");
+    }
+
+    @Override
+    protected void writeEntry(Entry entry, boolean first) throws IOException {
+        if (!first) {
+            writer.write(",\n");
+        }
+        writer.write("{\"ruleId\":\"" + RULE_ID + "\",\"level\":\"warning\","
+                + "\"message\":{\"text\":" + quote(entry.getMessage()) + "},"
+                + "\"locations\":[{\"physicalLocation\":{"
+                + "\"artifactLocation\":{\"uri\":" + quote(entry.path()) + ",\"uriBaseId\":\"%SRCROOT%\"}"
+                + (entry.line() > 0 ? ",\"region\":{\"startLine\":" + entry.line() + "}" : "")
+                + "}}]}");
+    }
+
+    @Override
+    protected void writeFooter() throws IOException {
+        writer.write("\n]}]}\n");
+    }
+}
@@ -0,0 +1,197 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.util.io.DataInputOutputUtil;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where a scan of the whole project stopped, so it can be continued later instead of starting over.
+ * <p>
+ * A class is done once the results of all its members were handed to the sink of the scan. A scan that runs out of
+ * its time budget or is cancelled keeps the classes done so far, and a scan continuing from the checkpoint skips
+ * them. With a time budget, each scan of the checkpoint stops once the budget is used up, so a large project can be
+ * scanned in slices.
+ * <p>
+ * Done classes keep what they contributed to the {@link ClassHierarchySnapshot}, so a scan continuing from the
+ * checkpoint doesn't classify or describe them again, but still knows how they extend and override the rest.
+ * <p>
+ * The files of done classes are remembered by their time stamp and length on disk, so the checkpoint also survives
+ * restarts, see {@link ScanStateStore}. Before continuing, {@link #dropChangedFiles()} forgets the classes of files
+ * that changed since, so they are analyzed again.
+ * <p>
+ * Thread-safe.
+ */
+public final class ScanCheckpoint {
+
+    /**
+     * A file with done classes, as it was on disk when its first class was done.
+     */
+    private record DoneFile(long timeStamp, long length, Set<String> classes) {
+    }
+
+    private final Duration timeBudget;
+    private final Map<String, DoneFile> doneFiles = new ConcurrentHashMap<>();
+    // Key of each done class → what it contributed to the hierarchy snapshot
+    private final Map<String, List<ClassHierarchySnapshot.ClassEntry>> doneClasses = new ConcurrentHashMap<>();
+    private volatile boolean complete = false;
+
+    /**
+     * @param timeBudget How long each scan of the checkpoint may run, null for no limit.
+     */
+    public ScanCheckpoint(Duration timeBudget) {
+        if (timeBudget != null && (timeBudget.isNegative() || timeBudget.isZero())) {
+            throw new IllegalArgumentException("Time budget must be positive, was " + timeBudget);
+        }
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * How long each scan of the checkpoint may run before it stops and leaves the rest for later, null for no limit.
+     */
+    public Duration getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * What the class contributed to the hierarchy snapshot of the scan it was done in.
+     *
+     * @param classKey See {@link MemberKey#ofClass}.
+     * @return The entries, or null if the class is not done.
+     */
+    List<ClassHierarchySnapshot.ClassEntry> getHierarchyEntries(String classKey) {
+        return doneClasses.get(classKey);
+    }
+
+    /**
+     * Records that the results of all members of the class were handed over.
+     *
+     * @param file             File declaring the class.
+     * @param hierarchyEntries What the class contributed to the hierarchy snapshot, see
+     *                         {@link ClassHierarchySnapshot#describe}.
+     */
+    void markDone(String classKey, VirtualFile file, List<ClassHierarchySnapshot.ClassEntry> hierarchyEntries) {
+        // The first class of a file decides its identity, a later change makes all classes of the file count again
+        doneFiles.computeIfAbsent(file.getUrl(),
+                        url -> new DoneFile(file.getTimeStamp(), file.getLength(), ConcurrentHashMap.newKeySet()))
+                .classes().add(classKey);
+        doneClasses.put(classKey, List.copyOf(hierarchyEntries));
+    }
+
+    /**
+     * Whether the scan got through all classes, so there is nothing left to continue.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Marks the scan as complete. The done classes are not needed to continue anymore, so they are dropped.
+     */
+    void setComplete() {
+        complete = true;
+        doneFiles.clear();
+        doneClasses.clear();
+    }
+
+    public int getDoneClassCount() {
+        return doneClasses.size();
+    }
+
+    /**
+     * Forgets the done classes of files that changed on disk or were deleted since their classes were done.
+     * Changes that are not saved yet are not noticed, so save all documents first.
+     *
+     * @return The changed files that still exist. Results found in them are outdated.
+     */
+    public Set<VirtualFile> dropChangedFiles() {
+        Set<VirtualFile> changed = new HashSet<>();
+        Iterator<Map.Entry<String, DoneFile>> iterator = doneFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, DoneFile> entry = iterator.next();
+            VirtualFile file = VirtualFileManager.getInstance().findFileByUrl(entry.getKey());
+            DoneFile doneFile = entry.getValue();
+            if (ScanStateStore.isUnchanged(file, doneFile.timeStamp(), doneFile.length())) continue;
+            iterator.remove();
+            doneFile.classes().forEach(doneClasses::remove);
+            if (file != null && file.isValid()) {
+                changed.add(file);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Writes the checkpoint, see {@link ScanStateStore}. The checkpoint must not be changed meanwhile.
+     */
+    void write(DataOutput out, ScanStateStore.StringTable strings) throws IOException {
+        DataInputOutputUtil.writeLONG(out, timeBudget != null ? timeBudget.toMillis() : 0);
+        out.writeBoolean(complete);
+        DataInputOutputUtil.writeINT(out, doneFiles.size());
+        for (Map.Entry<String, DoneFile> entry : doneFiles.entrySet()) {
+            strings.write(out, entry.getKey());
+            DataInputOutputUtil.writeLONG(out, entry.getValue().timeStamp());
+            DataInputOutputUtil.writeLONG(out, entry.getValue().length());
+            DataInputOutputUtil.writeINT(out, entry.getValue().classes().size());
+            for (String classKey : entry.getValue().classes()) {
+                strings.write(out, classKey);
+                List<ClassHierarchySnapshot.ClassEntry> entries = doneClasses.getOrDefault(classKey, List.of());
+                DataInputOutputUtil.writeINT(out, entries.size());
+                for (ClassHierarchySnapshot.ClassEntry classEntry : entries) {
+                    strings.write(out, classEntry.key());
+                    DataInputOutputUtil.writeINT(out, classEntry.superKeys().size());
+                    for (String superKey : classEntry.superKeys()) {
+                        strings.write(out, superKey);
+                    }
+                    strings.writeSet(out, classEntry.overriddenMethods());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads what {@link #write} wrote. Files that changed since are kept, see {@link #dropChangedFiles()}.
+     */
+    static ScanCheckpoint read(DataInput in, ScanStateStore.StringTable strings) throws IOException {
+        long budgetMillis = DataInputOutputUtil.readLONG(in);
+        ScanCheckpoint checkpoint = new ScanCheckpoint(budgetMillis > 0 ? Duration.ofMillis(budgetMillis) : null);
+        checkpoint.complete = in.readBoolean();
+        int count = DataInputOutputUtil.readINT(in);
+        for (int i = 0; i < count; i++) {
+            String url = strings.read(in);
+            long timeStamp = DataInputOutputUtil.readLONG(in);
+            long length = DataInputOutputUtil.readLONG(in);
+            Set<String> classes = ConcurrentHashMap.newKeySet();
+            int classCount = DataInputOutputUtil.readINT(in);
+            for (int j = 0; j < classCount; j++) {
+                String classKey = strings.read(in);
+                int entryCount = DataInputOutputUtil.readINT(in);
+                List<ClassHierarchySnapshot.ClassEntry> entries = new ArrayList<>(entryCount);
+                for (int k = 0; k < entryCount; k++) {
+                    String key = strings.read(in);
+                    int superCount = DataInputOutputUtil.readINT(in);
+                    List<String> superKeys = new ArrayList<>(superCount);
+                    for (int l = 0; l < superCount; l++) {
+                        superKeys.add(strings.read(in));
+                    }
+                    entries.add(new ClassHierarchySnapshot.ClassEntry(key, superKeys, strings.readSet(in)));
+                }
+                classes.add(classKey);
+                checkpoint.doneClasses.put(classKey, entries);
+            }
+            checkpoint.doneFiles.put(url, new DoneFile(timeStamp, length, classes));
+        }
+        return checkpoint;
+    }
+}
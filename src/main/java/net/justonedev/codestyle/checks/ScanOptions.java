@@ -0,0 +1,59 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.util.Set;
+
+/**
+ * Options that change how a scan is executed and how much of the project it looks at, but not the result
+ * for a member that is scanned.
+ *
+ * @param parallelism  Number of threads analyzing batches at the same time.
+ * @param changedFiles Files to limit the scan to, see {@link ChangedFilesScope}, or null to scan the whole project.
+ * @param removedNames Names the changed files referenced before they changed. Members with these names may have
+ *                     lost a usage, so they are scanned as well.
+ * @param checkpoint   Progress of a scan of the whole project: classes done in it are skipped, classes done by this
+ *                     scan are added, and the scan stops once the {@link ScanCheckpoint#getTimeBudget()} is used up.
+ *                     May be null, scans of changed files don't use it.
+ */
+public record ScanOptions(int parallelism,
+                          Set<VirtualFile> changedFiles,
+                          Set<String> removedNames,
+                          ScanCheckpoint checkpoint) {
+
+    public static final ScanOptions DEFAULT = new ScanOptions(Runtime.getRuntime().availableProcessors());
+
+    public ScanOptions {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, was " + parallelism);
+        }
+    }
+
+    /**
+     * Options for a scan of the whole project.
+     */
+    public ScanOptions(int parallelism) {
+        this(parallelism, null, Set.of(), null);
+    }
+
+    /**
+     * Same options, limited to the given changed files.
+     */
+    public ScanOptions withChangedFiles(Set<VirtualFile> files) {
+        return new ScanOptions(parallelism, Set.copyOf(files), Set.of(), null);
+    }
+
+    /**
+     * Same options, limited to the given changed files and the members with one of the removed names.
+     */
+    public ScanOptions withChangedFiles(Set<VirtualFile> files, Set<String> removedNames) {
+        return new ScanOptions(parallelism, Set.copyOf(files), Set.copyOf(removedNames), null);
+    }
+
+    /**
+     * Same options, continuing from the checkpoint.
+     */
+    public ScanOptions withCheckpoint(ScanCheckpoint checkpoint) {
+        return new ScanOptions(parallelism, changedFiles, removedNames, checkpoint);
+    }
+}
@@ -0,0 +1,152 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes scan results to a report file while the scan is running, so they never have to be held in memory.
+ * Every batch is flushed right away, so a report of a cancelled or crashed scan still holds everything found so far.
+ */
+public abstract class ScanReportWriter implements VisibilityResultSink, Closeable {
+
+    public enum Format {
+        /** One JSON object per line. */
+        JSONL,
+        /** SARIF 2.1.0, as understood by GitHub code scanning and most CI servers. */
+        SARIF;
+
+        public static Format get(String value) {
+            return switch (value.toLowerCase()) {
+                case "jsonl", "json" -> JSONL;
+                case "sarif" -> SARIF;
+                default -> throw new IllegalArgumentException("Unknown report format: " + value);
+            };
+        }
+    }
+
+    /**
+     * A result reduced to what ends up in the report, so no PSI is needed while writing.
+     *
+     * @param path Path of the file relative to the project directory, with forward slashes.
+     * @param line 1-based line of the member name.
+     */
+    protected record Entry(String className, String memberName, String kind, String path, int line,
+                           Visibility oldVisibility, Visibility newVisibility) {
+
+        public String getMessage() {
+            String name = "Class".equals(kind) ? className : className + "#" + memberName;
+            return kind + " " + name + " can be " + newVisibility.getVisibility()
+                    + " instead of " + oldVisibility.getVisibility();
+        }
+    }
+
+    private final Project project;
+    protected final Writer writer;
+    private int count;
+
+    protected ScanReportWriter(Project project, Writer writer) {
+        this.project = project;
+        this.writer = writer;
+    }
+
+    public static ScanReportWriter create(Format format, Project project, Writer writer) throws IOException {
+        ScanReportWriter reportWriter = switch (format) {
+            case JSONL -> new JsonLinesReportWriter(project, writer);
+            case SARIF -> new SarifReportWriter(project, writer);
+        };
+        reportWriter.writeHeader();
+        return reportWriter;
+    }
+
+    /**
+     * Number of results written so far.
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    @Override
+    public synchronized void accept(List<VisibilityResult> results) {
+        List<Entry> entries = ReadAction.compute(() -> results.stream().map(this::toEntry).toList());
+        try {
+            for (Entry entry : entries) {
+                writeEntry(entry, count++ == 0);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the visibility report", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writeFooter();
+        } finally {
+            writer.close();
+        }
+    }
+
+    protected abstract void writeHeader() throws IOException;
+
+    /**
+     * @param first Whether this is the first entry of the report.
+     */
+    protected abstract void writeEntry(Entry entry, boolean first) throws IOException;
+
+    protected abstract void writeFooter() throws IOException;
+
+    private Entry toEntry(VisibilityResult result) {
+        String path = "";
+        int line = 0;
+        PsiFile file = result.getFile();
+        VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+        if (virtualFile != null) {
+            String basePath = project.getBasePath();
+            String relativePath = basePath != null ? FileUtil.getRelativePath(basePath, virtualFile.getPath(), '/') : null;
+            path = relativePath != null ? relativePath : virtualFile.getPath();
+            Document document = PsiDocumentManager.getInstance(project).getDocument(file);
+            if (document != null) {
+                line = document.getLineNumber(Math.max(0, Math.min(result.getOffset(), document.getTextLength()))) + 1;
+            }
+        }
+        return new Entry(result.getClassName(), result.getMemberName(), result.getKind(), path, line,
+                result.oldVisibility(), result.newVisibility());
+    }
+
+    /**
+     * Returns the value as a JSON string literal.
+     */
+    protected static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
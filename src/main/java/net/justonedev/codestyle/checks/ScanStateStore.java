@@ -0,0 +1,276 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.io.DataInputOutputUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the last scan across IDE restarts: the rows of the tool window, the checkpoint of a scan that did not finish
+ * and the usage graph, in a binary file in the system directory of the project.
+ * <p>
+ * Files are identified by URL, and by time stamp and length on disk, since PSI modification stamps start over in
+ * every session. Graph entries of files that changed while the IDE was closed are dropped when loading, and rows
+ * from such files are marked stale.
+ */
+final class ScanStateStore {
+    private static final int VERSION = 6;
+
+    private final Path file;
+
+    ScanStateStore(Project project) {
+        this.file = PathManager.getSystemDir()
+                .resolve("minimal-visibility")
+                .resolve(project.getLocationHash())
+                .resolve("scan-state.bin");
+    }
+
+    /**
+     * What was saved of the last scan.
+     *
+     * @param settings   Settings the scan ran with, needed to check the rows again before applying them.
+     * @param results    Rows of the tool window.
+     * @param checkpoint Progress of the scan the rows were found by, or null if it is not known.
+     */
+    record SavedScan(VisibilitySettings settings, List<StoredResult> results, ScanCheckpoint checkpoint) {
+        static final SavedScan EMPTY = new SavedScan(VisibilitySettings.DEFAULT, List.of(), null);
+    }
+
+    /**
+     * A row of the tool window, reduced to what finds the member again after a restart.
+     *
+     * @param fileUrl   URL of the file declaring the member.
+     * @param timeStamp Time stamp of the file on disk when the row was found, see {@link VisibilityResult#diskTimeStamp()}.
+     * @param length    Length of the file on disk when the row was found.
+     * @param className Qualified name of the class the member belongs to, see {@link VisibilityResult#className()}.
+     * @param memberKey Key of the member, see {@link MemberKey}.
+     */
+    record StoredResult(String fileUrl,
+                        long timeStamp,
+                        long length,
+                        String className,
+                        String memberKey,
+                        Visibility oldVisibility,
+                        Visibility newVisibility) {
+
+        /**
+         * Stamps the row with the disk state its file had when the row was found, not the current one: a file edited
+         * since must make the row stale after a restart. Must be called inside a read action.
+         * Returns null if the member was deleted.
+         */
+        static StoredResult of(VisibilityResult result) {
+            PsiMember member = result.member();
+            VirtualFile virtualFile = member != null && member.isValid() ? result.getVirtualFile() : null;
+            if (virtualFile == null) return null;
+            return new StoredResult(virtualFile.getUrl(), result.diskTimeStamp(), result.diskLength(),
+                    result.className(), result.memberKey(), result.oldVisibility(), result.newVisibility());
+        }
+
+        /**
+         * Whether the file was changed or deleted since the row was saved.
+         */
+        boolean isStale() {
+            return !isUnchanged(VirtualFileManager.getInstance().findFileByUrl(fileUrl), timeStamp, length);
+        }
+
+        /**
+         * Finds the member again through the stub indexes, without loading any file.
+         * Must be called inside a read action in smart mode.
+         *
+         * @return The result, or null if the class or member is gone.
+         */
+        VisibilityResult resolve(Project project) {
+            PsiClass psiClass = JavaPsiFacade.getInstance(project)
+                    .findClass(className, GlobalSearchScope.projectScope(project));
+            if (psiClass == null) return null;
+            for (PsiMember member : MinimalVisibilityCheck.getAnalyzedMembers(psiClass)) {
+                if (memberKey.equals(MemberKey.of(member))) {
+                    // Saved again, the row must stay stale if the file changed
+                    return VisibilityResult.of(psiClass, member, oldVisibility, newVisibility)
+                            .withDiskState(timeStamp, length);
+                }
+            }
+            return null;
+        }
+    }
+
+    static boolean isUnchanged(VirtualFile file, long timeStamp, long length) {
+        return file != null && file.isValid() && file.getTimeStamp() == timeStamp && file.getLength() == length;
+    }
+
+    /**
+     * Writes the rows and the graph, replacing the previous state only once everything is written.
+     * The graph must not be updated meanwhile.
+     */
+    void save(SavedScan scan, UsageGraph graph) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            StringTable strings = new StringTable();
+            DataInputOutputUtil.writeINT(out, VERSION);
+            out.writeByte(scan.settings().usePackagePrivate().ordinal());
+            out.writeByte(scan.settings().useProtected().ordinal());
+            DataInputOutputUtil.writeINT(out, scan.results().size());
+            for (StoredResult result : scan.results()) {
+                strings.write(out, result.fileUrl());
+                DataInputOutputUtil.writeLONG(out, result.timeStamp());
+                DataInputOutputUtil.writeLONG(out, result.length());
+                strings.write(out, result.className());
+                strings.write(out, result.memberKey());
+                out.writeByte(result.oldVisibility().getLevel());
+                out.writeByte(result.newVisibility().getLevel());
+            }
+            out.writeBoolean(scan.checkpoint() != null);
+            if (scan.checkpoint() != null) {
+                scan.checkpoint().write(out, strings);
+            }
+            graph.write(out, strings);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the rows, and restores the graph entries of all files that are unchanged on disk.
+     *
+     * @return The last scan, empty if nothing was saved or the format changed since.
+     * @throws IOException If the file can't be read. The graph may be partially restored then, so clear it.
+     */
+    SavedScan load(UsageGraph graph) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (DataInputOutputUtil.readINT(in) != VERSION) {
+                return SavedScan.EMPTY;
+            }
+            VisibilitySettings settings = new VisibilitySettings(
+                    readEnum(in, VisibilitySettings.PackagePrivateStatus.values()),
+                    readEnum(in, VisibilitySettings.ProtectedStatus.values()));
+            StringTable strings = new StringTable();
+            int count = DataInputOutputUtil.readINT(in);
+            List<StoredResult> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(new StoredResult(
+                        strings.read(in),
+                        DataInputOutputUtil.readLONG(in),
+                        DataInputOutputUtil.readLONG(in),
+                        strings.read(in),
+                        strings.read(in),
+                        Visibility.fromLevel(in.readByte()),
+                        Visibility.fromLevel(in.readByte())));
+            }
+            ScanCheckpoint checkpoint = in.readBoolean() ? ScanCheckpoint.read(in, strings) : null;
+            graph.read(in, strings);
+            return new SavedScan(settings, results, checkpoint);
+        } catch (NoSuchFileException e) {
+            return SavedScan.EMPTY;
+        }
+    }
+
+    private static <T extends Enum<T>> T readEnum(DataInput in, T[] values) throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException("Unknown constant " + ordinal);
+        }
+        return values[ordinal];
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Writes every distinct string once, later occurrences only as an index.
+     * Member keys, URLs and caller classes repeat a lot, so this keeps the file small.
+     * Reading and writing must use a fresh table each, in the same order.
+     */
+    static final class StringTable {
+        private static final int NULL = 0;
+        private static final int NEW = 1;
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        void write(DataOutput out, String value) throws IOException {
+            if (value == null) {
+                DataInputOutputUtil.writeINT(out, NULL);
+                return;
+            }
+            Integer index = indexes.get(value);
+            if (index != null) {
+                DataInputOutputUtil.writeINT(out, index + 2);
+                return;
+            }
+            indexes.put(value, indexes.size());
+            DataInputOutputUtil.writeINT(out, NEW);
+            out.writeUTF(value);
+        }
+
+        String read(DataInput in) throws IOException {
+            int tag = DataInputOutputUtil.readINT(in);
+            if (tag == NULL) return null;
+            if (tag == NEW) {
+                String value = in.readUTF();
+                strings.add(value);
+                return value;
+            }
+            if (tag - 2 >= strings.size()) {
+                throw new IOException("Unknown string index " + (tag - 2));
+            }
+            return strings.get(tag - 2);
+        }
+
+        void writeSet(DataOutput out, Set<String> values) throws IOException {
+            DataInputOutputUtil.writeINT(out, values.size());
+            for (String value : values) {
+                write(out, value);
+            }
+        }
+
+        Set<String> readSet(DataInput in) throws IOException {
+            int count = DataInputOutputUtil.readINT(in);
+            Set<String> values = new HashSet<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(read(in));
+            }
+            return values;
+        }
+
+        void writeSetMap(DataOutput out, Map<String, Set<String>> values) throws IOException {
+            DataInputOutputUtil.writeINT(out, values.size());
+            for (Map.Entry<String, Set<String>> entry : values.entrySet()) {
+                write(out, entry.getKey());
+                writeSet(out, entry.getValue());
+            }
+        }
+
+        Map<String, Set<String>> readSetMap(DataInput in) throws IOException {
+            int count = DataInputOutputUtil.readINT(in);
+            Map<String, Set<String>> values = new HashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                values.put(read(in), readSet(in));
+            }
+            return values;
+        }
+    }
+}
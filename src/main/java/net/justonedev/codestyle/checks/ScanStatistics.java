@@ -0,0 +1,330 @@
+package net.justonedev.codestyle.checks;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and timings collected while analyzing members. Thread-safe.
+ * <p>
+ * Tier counts only include completed work. Timings and reference counts include the work of read actions that
+ * were cancelled by a write action and restarted, since that time was spent all the same.
+ */
+public class ScanStatistics {
+
+    /**
+     * Number of members kept in {@link #getSlowestMembers()}.
+     */
+    public static final int SLOWEST_MEMBER_COUNT = 10;
+
+    /**
+     * Phases of a scan, in the order they run.
+     */
+    public enum Phase {
+        /** Finding all classes and Java files of the project. */
+        ENUMERATE("enumerate"),
+        /** Classifying members with the word index and taking the hierarchy snapshot. */
+        CLASSIFY("classify"),
+        /** Walking changed files and resolving their references into the usage graph. */
+        RESOLVE("resolve"),
+        /** Computing the visibility of each member. */
+        ANALYZE("analyze");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * Time it took to analyze a single member.
+     *
+     * @param member Key of the member, see {@link MemberKey}.
+     */
+    public record MemberTiming(String member, long nanos) {
+    }
+
+    private final Map<UsageSearchPrefilter.Tier, AtomicInteger> tierCounts = new EnumMap<>(UsageSearchPrefilter.Tier.class);
+    private final AtomicInteger trivialCount = new AtomicInteger();
+    private final Map<Phase, AtomicLong> phaseNanos = new EnumMap<>(Phase.class);
+    private final AtomicLong referencesExamined = new AtomicLong();
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    private final AtomicInteger deferredCount = new AtomicInteger();
+    private final AtomicInteger analyzedCount = new AtomicInteger();
+    private final AtomicLong analysisNanos = new AtomicLong();
+    private final AtomicLong readActionWaitNanos = new AtomicLong();
+    private final AtomicInteger readActionCount = new AtomicInteger();
+    private final List<MemberTiming> slowestMembers = new ArrayList<>();
+    private final AtomicInteger moduleCount = new AtomicInteger();
+    private volatile Map<String, Integer> membersUsedOutsideModule = Map.of();
+
+    public ScanStatistics() {
+        for (UsageSearchPrefilter.Tier tier : UsageSearchPrefilter.Tier.values()) {
+            tierCounts.put(tier, new AtomicInteger());
+        }
+        for (Phase phase : Phase.values()) {
+            phaseNanos.put(phase, new AtomicLong());
+        }
+    }
+
+    public void recordClassification(UsageSearchPrefilter.Classification classification) {
+        tierCounts.get(classification.tier()).incrementAndGet();
+        if (classification.trivial()) {
+            trivialCount.incrementAndGet();
+        }
+    }
+
+    public int getTierCount(UsageSearchPrefilter.Tier tier) {
+        return tierCounts.get(tier).get();
+    }
+
+    /**
+     * Number of members that were decided from the indexes alone, without resolving any reference.
+     */
+    public int getTrivialCount() {
+        return trivialCount.get();
+    }
+
+    /**
+     * Adds wall time to a phase. A phase that runs several times, e.g. because the graph was reset, adds up.
+     */
+    public void recordPhase(Phase phase, long nanos) {
+        phaseNanos.get(phase).addAndGet(nanos);
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos.get(phase).get();
+    }
+
+    /**
+     * Counts references, or usages from the graph, that were looked at to decide a member's visibility.
+     */
+    public void recordReferencesExamined(int count) {
+        referencesExamined.addAndGet(count);
+    }
+
+    public long getReferencesExamined() {
+        return referencesExamined.get();
+    }
+
+    /**
+     * Counts members that were not searched at all, because they are already private or must keep their visibility.
+     */
+    public void recordSkipped(int count) {
+        skippedCount.addAndGet(count);
+    }
+
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Counts members the highlighting left to a background analysis, because their name occurs in too many files.
+     */
+    public void recordDeferred() {
+        deferredCount.incrementAndGet();
+    }
+
+    public int getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * Records how long the analysis of a single member took.
+     * If the member was analyzed more than once, only its slowest run is kept in {@link #getSlowestMembers()}.
+     */
+    public void recordMemberAnalysis(String member, long nanos) {
+        analyzedCount.incrementAndGet();
+        analysisNanos.addAndGet(nanos);
+        synchronized (slowestMembers) {
+            for (int i = 0; i < slowestMembers.size(); i++) {
+                if (slowestMembers.get(i).member().equals(member)) {
+                    if (slowestMembers.get(i).nanos() >= nanos) return;
+                    slowestMembers.remove(i);
+                    break;
+                }
+            }
+            if (slowestMembers.size() == SLOWEST_MEMBER_COUNT
+                    && slowestMembers.get(SLOWEST_MEMBER_COUNT - 1).nanos() >= nanos) {
+                return;
+            }
+            // Sorted descending, so the fastest one is dropped when the list is full
+            int index = 0;
+            while (index < slowestMembers.size() && slowestMembers.get(index).nanos() >= nanos) {
+                index++;
+            }
+            slowestMembers.add(index, new MemberTiming(member, nanos));
+            if (slowestMembers.size() > SLOWEST_MEMBER_COUNT) {
+                slowestMembers.remove(SLOWEST_MEMBER_COUNT);
+            }
+        }
+    }
+
+    public int getAnalyzedCount() {
+        return analyzedCount.get();
+    }
+
+    public long getAnalysisNanos() {
+        return analysisNanos.get();
+    }
+
+    /**
+     * The slowest analyzed members, slowest first.
+     */
+    public List<MemberTiming> getSlowestMembers() {
+        synchronized (slowestMembers) {
+            return List.copyOf(slowestMembers);
+        }
+    }
+
+    /**
+     * Records the time a read action spent not running its unit of work: waiting for indexing, for write actions
+     * and in attempts that were cancelled by a write action.
+     */
+    public void recordReadActionWait(long nanos) {
+        readActionCount.incrementAndGet();
+        readActionWaitNanos.addAndGet(nanos);
+    }
+
+    public long getReadActionWaitNanos() {
+        return readActionWaitNanos.get();
+    }
+
+    public int getReadActionCount() {
+        return readActionCount.get();
+    }
+
+    public void recordModuleCount(int count) {
+        moduleCount.set(count);
+    }
+
+    public int getModuleCount() {
+        return moduleCount.get();
+    }
+
+    /**
+     * Records the per-module usage summary of the usage graph.
+     *
+     * @param counts Module name → number of its members used by other modules.
+     */
+    public void recordMembersUsedOutsideModule(Map<String, Integer> counts) {
+        membersUsedOutsideModule = Map.copyOf(counts);
+    }
+
+    /**
+     * Module name → number of its members used by other modules, sorted by module name.
+     */
+    public Map<String, Integer> getMembersUsedOutsideModule() {
+        return new TreeMap<>(membersUsedOutsideModule);
+    }
+
+    public String getSummary() {
+        return "Members by search tier: "
+                + getTierCount(UsageSearchPrefilter.Tier.DECLARING_FILE) + " declaring file ("
+                + getTrivialCount() + " decided from the index alone), "
+                + getTierCount(UsageSearchPrefilter.Tier.DECLARING_PACKAGE) + " declaring package, "
+                + getTierCount(UsageSearchPrefilter.Tier.PROJECT) + " whole project";
+    }
+
+    /**
+     * Everything that was recorded, one value per line, e.g. for the log or the statistics tab.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        long totalNanos = 0;
+        for (Phase phase : Phase.values()) {
+            totalNanos += getPhaseNanos(phase);
+        }
+        if (totalNanos > 0) {
+            report.append("Wall time: ").append(millis(totalNanos)).append(" ms (");
+            String separator = "";
+            for (Phase phase : Phase.values()) {
+                report.append(separator).append(phase.getDisplayName()).append(' ')
+                        .append(millis(getPhaseNanos(phase))).append(" ms");
+                separator = ", ";
+            }
+            report.append(")\n");
+        }
+        report.append(getSummary()).append('\n');
+        report.append("Members analyzed: ").append(getAnalyzedCount())
+                .append(" in ").append(millis(getAnalysisNanos())).append(" ms, skipped: ").append(getSkippedCount())
+                .append('\n');
+        report.append("References examined: ").append(getReferencesExamined()).append('\n');
+        if (getDeferredCount() > 0) {
+            report.append("Deferred to the background while highlighting: ").append(getDeferredCount()).append('\n');
+        }
+        if (getModuleCount() > 0) {
+            int usedOutside = getMembersUsedOutsideModule().values().stream().mapToInt(Integer::intValue).sum();
+            report.append("Modules: ").append(getModuleCount())
+                    .append(", members used outside their module: ").append(usedOutside).append('\n');
+        }
+        if (getReadActionCount() > 0) {
+            report.append("Read actions: ").append(getReadActionCount())
+                    .append(", waited ").append(millis(getReadActionWaitNanos())).append(" ms\n");
+        }
+        List<MemberTiming> slowest = getSlowestMembers();
+        if (!slowest.isEmpty()) {
+            report.append("Slowest members:\n");
+            for (MemberTiming timing : slowest) {
+                report.append("  ").append(millis(timing.nanos())).append(" ms ").append(timing.member()).append('\n');
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Everything that was recorded as a single JSON object, for the headless scan and the benchmarks.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"phasesMillis\":{");
+        String separator = "";
+        for (Phase phase : Phase.values()) {
+            json.append(separator).append(ScanReportWriter.quote(phase.getDisplayName()))
+                    .append(':').append(millis(getPhaseNanos(phase)));
+            separator = ",";
+        }
+        json.append("},\"tiers\":{");
+        separator = "";
+        for (UsageSearchPrefilter.Tier tier : UsageSearchPrefilter.Tier.values()) {
+            json.append(separator).append(ScanReportWriter.quote(tier.name())).append(':').append(getTierCount(tier));
+            separator = ",";
+        }
+        json.append("},\"trivial\":").append(getTrivialCount())
+                .append(",\"analyzed\":").append(getAnalyzedCount())
+                .append(",\"analysisMillis\":").append(millis(getAnalysisNanos()))
+                .append(",\"skipped\":").append(getSkippedCount())
+                .append(",\"deferred\":").append(getDeferredCount())
+                .append(",\"referencesExamined\":").append(getReferencesExamined())
+                .append(",\"readActions\":").append(getReadActionCount())
+                .append(",\"readActionWaitMillis\":").append(millis(getReadActionWaitNanos()))
+                .append(",\"modules\":").append(getModuleCount())
+                .append(",\"membersUsedOutsideModule\":{");
+        separator = "";
+        for (Map.Entry<String, Integer> entry : getMembersUsedOutsideModule().entrySet()) {
+            json.append(separator).append(ScanReportWriter.quote(entry.getKey())).append(':').append(entry.getValue());
+            separator = ",";
+        }
+        json.append("},\"slowestMembers\":[");
+        separator = "";
+        for (MemberTiming timing : getSlowestMembers()) {
+            json.append(separator).append("{\"member\":").append(ScanReportWriter.quote(timing.member()))
+                    .append(",\"millis\":").append(millis(timing.nanos())).append('}');
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,738 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.psi.JavaRecursiveElementWalkingVisitor;
+import com.intellij.psi.PsiAnonymousClass;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassType;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaCodeReferenceElement;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiMethodCallExpression;
+import com.intellij.psi.PsiMethodReferenceExpression;
+import com.intellij.psi.PsiNewExpression;
+import com.intellij.psi.PsiPolyVariantReference;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.PsiReferenceExpression;
+import com.intellij.psi.PsiReferenceList;
+import com.intellij.psi.PsiReferenceService;
+import com.intellij.psi.ReferenceRange;
+import com.intellij.psi.ResolveResult;
+import com.intellij.psi.javadoc.PsiDocComment;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiSearchHelper;
+import com.intellij.psi.search.UsageSearchContext;
+import com.intellij.psi.search.searches.ReferencesSearch;
+import com.intellij.psi.util.JavaPsiConstructorUtil;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.io.DataInputOutputUtil;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Callee → usage graph of all Java files in a scope.
+ * <p>
+ * Every Java file is walked once, and each method call, method reference, constructor call (including implicit
+ * super constructor calls), field reference and type reference is resolved a single time. The visibility of any
+ * member can then be computed from the graph instead of running a separate {@link ReferencesSearch} per member.
+ * <p>
+ * Usages are stored per file together with the file's modification stamp, so the graph can be kept
+ * between scans and only changed files need to be walked again. {@link ScanStateStore} also keeps it across restarts.
+ * <p>
+ * Each file only resolves references to names its module can see, see {@link ModulePartition}. In a project with
+ * many modules, a file in a leaf module then only resolves what its few dependencies declare.
+ * <p>
+ * Must be updated and queried inside a read action. Files may be updated from several threads at once.
+ */
+public class UsageGraph {
+    private final Project project;
+    private final GlobalSearchScope scope;
+    private volatile Map<String, Set<String>> memberNames = Map.of();
+    private volatile Map<String, Set<String>> moduleClosures = Map.of();
+    private final Map<String, FileUsages> files = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Set<MemberUsage>>> usagesByMember = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Set<MemberUsage>>> foreignUsages = new ConcurrentHashMap<>();
+    // Keys of members that were declared before and not anymore or the other way around, see takeChangedDeclarations
+    private final Set<String> changedDeclarations = ConcurrentHashMap.newKeySet();
+
+    /**
+     * What a single file contributes to the graph.
+     *
+     * @param stamp         PSI modification stamp of the file when it was walked.
+     * @param diskTimeStamp Time stamp of the file on disk when it was walked, or -1 if the walked content was not
+     *                      saved yet. Only this identifies the walked content in a later session.
+     * @param diskLength    Length of the file on disk when it was walked.
+     * @param module        Module of the file when it was walked, see {@link ModulePartition#moduleOf}.
+     * @param usages        Member key → usages found in this file.
+     * @param members       Keys of the named classes declared in this file, and of their methods and fields.
+     * @param superMembers  Keys of the methods that methods of these classes override.
+     * @param hierarchy     Supertypes of these classes, to notice hierarchy changes.
+     */
+    private record FileUsages(long stamp,
+                              long diskTimeStamp,
+                              long diskLength,
+                              String module,
+                              Map<String, Set<MemberUsage>> usages,
+                              Set<String> members,
+                              Set<String> superMembers,
+                              String hierarchy) {
+
+        Set<String> affectedMembers() {
+            Set<String> affected = new HashSet<>(usages.keySet());
+            affected.addAll(members);
+            affected.addAll(superMembers);
+            return affected;
+        }
+    }
+
+    UsageGraph(Project project, GlobalSearchScope scope) {
+        this.project = project;
+        this.scope = scope;
+    }
+
+    /**
+     * Sets the names of the members that will be analyzed. References to other names are not resolved at all.
+     *
+     * @param names Name → modules declaring an analyzed member with that name.
+     * @return The names that are declared in a module now that did not declare them before. Files referencing
+     *         such a name may not have resolved it when they were walked.
+     */
+    Set<String> updateMemberNames(Map<String, Set<String>> names) {
+        Map<String, Set<String>> previous = memberNames;
+        Set<String> added = new HashSet<>();
+        Map<String, Set<String>> copy = new HashMap<>(names.size());
+        names.forEach((name, modules) -> {
+            Set<String> before = previous.get(name);
+            if (before == null || !before.containsAll(modules)) {
+                added.add(name);
+            }
+            copy.put(name, Set.copyOf(modules));
+        });
+        memberNames = Map.copyOf(copy);
+        return added;
+    }
+
+    /**
+     * Name → modules declaring an analyzed member with that name.
+     */
+    Map<String, Set<String>> getMemberNames() {
+        return memberNames;
+    }
+
+    /**
+     * Sets the dependency closure of every module, see {@link ModulePartition#getClosures()}.
+     *
+     * @return The modules whose closure changed. Their files may not have resolved names they can see now.
+     */
+    Set<String> updateModuleClosures(Map<String, Set<String>> closures) {
+        Map<String, Set<String>> previous = moduleClosures;
+        Set<String> changed = new HashSet<>();
+        closures.forEach((module, closure) -> {
+            Set<String> before = previous.get(module);
+            if (before != null && !before.equals(closure)) {
+                changed.add(module);
+            }
+        });
+        moduleClosures = Map.copyOf(closures);
+        return changed;
+    }
+
+    /**
+     * The analyzed names code in the module can reference: names declared in the module's dependency closure, and
+     * names declared outside of any known module. A module that is not known, like {@link ModulePartition#NO_MODULE},
+     * sees all names.
+     */
+    private Predicate<String> visibleNames(String module) {
+        Map<String, Set<String>> names = memberNames;
+        Map<String, Set<String>> closures = moduleClosures;
+        Set<String> closure = closures.get(module);
+        if (closure == null) {
+            return names::containsKey;
+        }
+        return name -> {
+            Set<String> declaringModules = names.get(name);
+            if (declaringModules == null) return false;
+            for (String declaringModule : declaringModules) {
+                if (closure.contains(declaringModule) || !closures.containsKey(declaringModule)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Forgets cached usages from non-Java files, which are not tracked per file.
+     */
+    void clearForeignUsages() {
+        foreignUsages.clear();
+    }
+
+    private void forgetForeignUsages(Set<String> memberKeys) {
+        if (foreignUsages.isEmpty()) return;
+        for (String memberKey : memberKeys) {
+            String name = MemberKey.nameOf(memberKey);
+            if (name != null) {
+                foreignUsages.remove(name);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * Whether the file was walked since it last changed, as part of the given module.
+     */
+    boolean isUpToDate(PsiJavaFile file, String module) {
+        FileUsages record = files.get(file.getVirtualFile().getUrl());
+        return record != null && record.stamp() == file.getModificationStamp() && record.module().equals(module);
+    }
+
+    Set<String> getFileUrls() {
+        return Set.copyOf(files.keySet());
+    }
+
+    /**
+     * Returns the URLs of the files that were walked as part of any of the given modules.
+     */
+    Set<String> getFileUrlsInModules(Set<String> modules) {
+        Set<String> urls = new HashSet<>();
+        files.forEach((url, record) -> {
+            if (modules.contains(record.module())) {
+                urls.add(url);
+            }
+        });
+        return urls;
+    }
+
+    /**
+     * Returns the URLs of the files that contain a usage of any of the given members.
+     */
+    Set<String> getFileUrlsUsing(Set<String> memberKeys) {
+        Set<String> urls = new HashSet<>();
+        for (String memberKey : memberKeys) {
+            Map<String, Set<MemberUsage>> byFile = usagesByMember.get(memberKey);
+            if (byFile != null) {
+                urls.addAll(byFile.keySet());
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Returns whether any of the given referenced names belongs to a member that will be analyzed
+     * and that the module can see.
+     */
+    boolean callsAnyMember(String module, Set<String> calledNames) {
+        Predicate<String> names = visibleNames(module);
+        return calledNames.stream().anyMatch(names);
+    }
+
+    /**
+     * The per-module usage summary: how many of the members declared in each module are used by files of
+     * another module. Members that are not counted here are only used inside their own module.
+     *
+     * @return Module name → number of members used from outside, only modules with at least one.
+     */
+    Map<String, Integer> countMembersUsedOutsideModule() {
+        Map<String, String> declaringModules = new HashMap<>();
+        files.values().forEach(record -> record.members().forEach(member -> declaringModules.put(member, record.module())));
+        Map<String, Integer> counts = new TreeMap<>();
+        usagesByMember.forEach((member, byFile) -> {
+            String module = declaringModules.get(member);
+            if (module == null) return;
+            for (String url : byFile.keySet()) {
+                FileUsages user = files.get(url);
+                if (user != null && !user.module().equals(module)) {
+                    counts.merge(module, 1, Integer::sum);
+                    return;
+                }
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Walks the file again and replaces its previous contribution to the graph.
+     * Safe to call concurrently for different files.
+     *
+     * @param module       Module of the file, only the names it can see are resolved.
+     * @param resolveCalls Whether calls need to be resolved. If the file does not call any analyzed name,
+     *                     only its declarations are recorded.
+     * @param hierarchy    Snapshot of the current scan, answers whether callers are subclasses.
+     * @return Keys of all members whose usages or overrides may have changed, or null if the class hierarchy changed.
+     */
+    Set<String> updateFile(PsiJavaFile file, String module, boolean resolveCalls, ClassHierarchySnapshot hierarchy) {
+        FileUsages updated = walk(file, module, resolveCalls, hierarchy);
+        FileUsages previous = replace(file.getVirtualFile().getUrl(), updated);
+        if (previous != null && !previous.hierarchy().equals(updated.hierarchy())) {
+            // Inheritance changed, so subclass flags recorded for other files may be wrong now
+            return null;
+        }
+        Set<String> affected = updated.affectedMembers();
+        if (previous != null) {
+            affected.addAll(previous.affectedMembers());
+            if (!previous.members().equals(updated.members())) {
+                Set<String> changed = new HashSet<>(previous.members());
+                changed.addAll(updated.members());
+                Set<String> unchanged = new HashSet<>(previous.members());
+                unchanged.retainAll(updated.members());
+                changed.removeAll(unchanged);
+                changedDeclarations.addAll(changed);
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Returns and forgets the keys of members whose declaration appeared or disappeared since the graph last saw
+     * their file: a changed signature, an added overload, a deleted file, ... Files that were walked before the
+     * change still record their usages under the members as they were declared then, or may resolve to another
+     * member now, so the files referencing these members or their names need to be walked again.
+     */
+    Set<String> takeChangedDeclarations() {
+        Set<String> changed = Set.copyOf(changedDeclarations);
+        changedDeclarations.removeAll(changed);
+        return changed;
+    }
+
+    /**
+     * Removes everything the file contributed, e.g. because it was deleted or needs to be walked again.
+     *
+     * @return Keys of all members whose usages or overrides may have changed.
+     */
+    Set<String> removeFile(String url) {
+        return removeFile(url, false);
+    }
+
+    /**
+     * Same as {@link #removeFile(String)}.
+     *
+     * @param deleted Whether the file is gone, so its members are not declared anymore, see
+     *                {@link #takeChangedDeclarations()}. Otherwise the file is walked again and compared then.
+     */
+    Set<String> removeFile(String url, boolean deleted) {
+        FileUsages previous = replace(url, null);
+        if (previous == null) return Set.of();
+        if (deleted) {
+            changedDeclarations.addAll(previous.members());
+        }
+        return previous.affectedMembers();
+    }
+
+    void clear() {
+        files.clear();
+        usagesByMember.clear();
+        foreignUsages.clear();
+        changedDeclarations.clear();
+    }
+
+    /**
+     * Writes all files of the graph, see {@link ScanStateStore}. Instead of the PSI modification stamp, which is only
+     * valid in this session, the time stamp and length the file had on disk when it was walked are written, so a file
+     * that changed since doesn't look up to date after a restart.
+     * The graph must not be updated meanwhile.
+     */
+    void write(DataOutput out, ScanStateStore.StringTable strings) throws IOException {
+        strings.writeSetMap(out, memberNames);
+        strings.writeSetMap(out, moduleClosures);
+        Map<String, FileUsages> records = new HashMap<>(files);
+        DataInputOutputUtil.writeINT(out, records.size());
+        for (Map.Entry<String, FileUsages> entry : records.entrySet()) {
+            FileUsages record = entry.getValue();
+            strings.write(out, entry.getKey());
+            DataInputOutputUtil.writeLONG(out, record.diskTimeStamp());
+            DataInputOutputUtil.writeLONG(out, record.diskLength());
+            strings.write(out, record.module());
+            strings.write(out, record.hierarchy());
+            strings.writeSet(out, record.members());
+            strings.writeSet(out, record.superMembers());
+            DataInputOutputUtil.writeINT(out, record.usages().size());
+            for (Map.Entry<String, Set<MemberUsage>> usages : record.usages().entrySet()) {
+                strings.write(out, usages.getKey());
+                DataInputOutputUtil.writeINT(out, usages.getValue().size());
+                for (MemberUsage usage : usages.getValue()) {
+                    strings.write(out, usage.callerClass());
+                    strings.write(out, usage.callerPackage());
+                    out.writeBoolean(usage.subclass());
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores what {@link #write} wrote into an empty graph. Files that changed on disk since are left out,
+     * so the next scan walks them again like new files. Files that are unchanged get their current modification
+     * stamp, so the next scan skips them.
+     */
+    void read(DataInput in, ScanStateStore.StringTable strings) throws IOException {
+        memberNames = Map.copyOf(strings.readSetMap(in));
+        moduleClosures = Map.copyOf(strings.readSetMap(in));
+        int count = DataInputOutputUtil.readINT(in);
+        for (int i = 0; i < count; i++) {
+            String url = strings.read(in);
+            long timeStamp = DataInputOutputUtil.readLONG(in);
+            long length = DataInputOutputUtil.readLONG(in);
+            String module = strings.read(in);
+            String hierarchy = strings.read(in);
+            Set<String> members = strings.readSet(in);
+            Set<String> superMembers = strings.readSet(in);
+            int memberCount = DataInputOutputUtil.readINT(in);
+            Map<String, Set<MemberUsage>> usages = new HashMap<>(memberCount);
+            for (int j = 0; j < memberCount; j++) {
+                String memberKey = strings.read(in);
+                int usageCount = DataInputOutputUtil.readINT(in);
+                Set<MemberUsage> memberUsages = new HashSet<>(usageCount);
+                for (int k = 0; k < usageCount; k++) {
+                    memberUsages.add(new MemberUsage(strings.read(in), strings.read(in), in.readBoolean()));
+                }
+                usages.put(memberKey, memberUsages);
+            }
+
+            // Without a document, the PSI of a file has the modification stamp of the file itself
+            VirtualFile file = VirtualFileManager.getInstance().findFileByUrl(url);
+            if (ScanStateStore.isUnchanged(file, timeStamp, length)) {
+                replace(url, new FileUsages(file.getModificationStamp(), timeStamp, length, module, usages, members,
+                        superMembers, hierarchy));
+            } else {
+                // Walked again like a new file, so nothing tells which of its declarations changed
+                changedDeclarations.addAll(members);
+            }
+        }
+    }
+
+    private FileUsages replace(String url, FileUsages updated) {
+        FileUsages previous = updated != null ? files.put(url, updated) : files.remove(url);
+        // What references from non-Java files resolve to may have changed with the declarations of this file
+        if (previous != null) {
+            forgetForeignUsages(previous.members());
+        }
+        if (updated != null) {
+            forgetForeignUsages(updated.members());
+        }
+        if (previous != null) {
+            for (String member : previous.usages().keySet()) {
+                Map<String, Set<MemberUsage>> byFile = usagesByMember.get(member);
+                if (byFile != null) {
+                    byFile.remove(url);
+                }
+            }
+        }
+        if (updated != null) {
+            updated.usages().forEach((member, usages) ->
+                    usagesByMember.computeIfAbsent(member, key -> new ConcurrentHashMap<>()).put(url, usages));
+        }
+        return previous;
+    }
+
+    private FileUsages walk(PsiJavaFile file, String module, boolean resolveCalls, ClassHierarchySnapshot hierarchy) {
+        long stamp = file.getModificationStamp();
+        VirtualFile virtualFile = file.getVirtualFile();
+        boolean saved = !FileDocumentManager.getInstance().isFileModified(virtualFile);
+        long diskTimeStamp = saved ? virtualFile.getTimeStamp() : -1;
+        long diskLength = saved ? virtualFile.getLength() : -1;
+        Predicate<String> names = visibleNames(module);
+        Map<String, Set<MemberUsage>> usages = new HashMap<>();
+        if (resolveCalls) {
+            file.accept(new JavaRecursiveElementWalkingVisitor() {
+                @Override
+                public void visitMethodCallExpression(PsiMethodCallExpression expression) {
+                    super.visitMethodCallExpression(expression);
+                    String name = expression.getMethodExpression().getReferenceName();
+                    // this(...) and super(...) call a constructor, whose name is the class name
+                    if (name != null && ("this".equals(name) || "super".equals(name) || names.test(name))) {
+                        record(usages, expression, expression.resolveMethod(), hierarchy);
+                    }
+                }
+
+                @Override
+                public void visitMethodReferenceExpression(PsiMethodReferenceExpression expression) {
+                    super.visitMethodReferenceExpression(expression);
+                    String name = expression.getReferenceName();
+                    if (name != null && ("new".equals(name) || names.test(name))) {
+                        if (expression.resolve() instanceof PsiMethod method) {
+                            record(usages, expression, method, hierarchy);
+                        }
+                    }
+                }
+
+                @Override
+                public void visitNewExpression(PsiNewExpression expression) {
+                    super.visitNewExpression(expression);
+                    PsiJavaCodeReferenceElement classReference = expression.getClassOrAnonymousClassReference();
+                    String name = classReference != null ? classReference.getReferenceName() : null;
+                    if (name != null && names.test(name)) {
+                        record(usages, expression, expression.resolveConstructor(), hierarchy);
+                    }
+                }
+
+                @Override
+                public void visitReferenceExpression(PsiReferenceExpression expression) {
+                    super.visitReferenceExpression(expression);
+                    // Calls and method references are handled above, this is about fields and classes
+                    if (expression instanceof PsiMethodReferenceExpression
+                            || expression.getParent() instanceof PsiMethodCallExpression) return;
+                    String name = expression.getReferenceName();
+                    if (name != null && names.test(name) && !isInJavadoc(expression)
+                            && expression.resolve() instanceof PsiMember member
+                            && (member instanceof PsiField || member instanceof PsiClass)) {
+                        record(usages, expression, member, hierarchy);
+                    }
+                }
+
+                @Override
+                public void visitReferenceElement(PsiJavaCodeReferenceElement reference) {
+                    super.visitReferenceElement(reference);
+                    // Type references: declarations, extends lists, new expressions, imports, ...
+                    if (reference instanceof PsiReferenceExpression) return;
+                    String name = reference.getReferenceName();
+                    if (name != null && names.test(name) && !isInJavadoc(reference)
+                            && reference.resolve() instanceof PsiClass psiClass) {
+                        record(usages, reference, psiClass, hierarchy);
+                    }
+                }
+
+                @Override
+                public void visitClass(PsiClass aClass) {
+                    super.visitClass(aClass);
+                    recordImplicitSuperCalls(usages, aClass, names, hierarchy);
+                }
+            });
+        }
+
+        Set<String> members = new HashSet<>();
+        Set<String> superMembers = new HashSet<>();
+        StringBuilder hierarchy = new StringBuilder();
+        // Only named classes, from the stubs, whether calls were resolved or not. Local and anonymous classes are
+        // keyed by their offset, which any edit above them shifts, and no other file can extend them, so a change
+        // to them never touches what other files recorded.
+        for (PsiClass psiClass : namedClasses(file.getClasses(), new ArrayList<>())) {
+            hierarchy.append(MemberKey.ofClass(psiClass))
+                    .append(':').append(referenceListText(psiClass.getExtendsList()))
+                    .append(':').append(referenceListText(psiClass.getImplementsList()))
+                    .append(';');
+            members.add(MemberKey.ofClass(psiClass));
+            for (PsiMethod method : psiClass.getMethods()) {
+                members.add(MemberKey.of(method));
+                for (PsiMethod superMethod : method.findSuperMethods()) {
+                    superMembers.add(MemberKey.of(superMethod));
+                }
+            }
+            for (PsiField field : psiClass.getFields()) {
+                members.add(MemberKey.of(field));
+            }
+        }
+        return new FileUsages(stamp, diskTimeStamp, diskLength, module, usages, members, superMembers,
+                hierarchy.toString());
+    }
+
+    private static List<PsiClass> namedClasses(PsiClass[] classes, List<PsiClass> result) {
+        for (PsiClass psiClass : classes) {
+            result.add(psiClass);
+            namedClasses(psiClass.getInnerClasses(), result);
+        }
+        return result;
+    }
+
+    private static String referenceListText(PsiReferenceList list) {
+        if (list == null) return "";
+        StringJoiner types = new StringJoiner(",");
+        for (PsiClassType type : list.getReferencedTypes()) {
+            types.add(type.getCanonicalText());
+        }
+        return types.toString();
+    }
+
+    /**
+     * Constructors without this(...) or super(...), and classes without any constructor,
+     * call the no-argument constructor of the superclass without mentioning it.
+     */
+    private void recordImplicitSuperCalls(Map<String, Set<MemberUsage>> usages,
+                                          PsiClass psiClass,
+                                          Predicate<String> names,
+                                          ClassHierarchySnapshot hierarchy) {
+        if (psiClass instanceof PsiAnonymousClass) return; // the new expression calls the constructor
+        PsiClass superClass = psiClass.getSuperClass();
+        if (superClass == null || superClass.getName() == null || !names.test(superClass.getName())) return;
+        PsiMethod superConstructor = findNoArgConstructor(superClass);
+        if (superConstructor == null) return;
+
+        PsiMethod[] constructors = psiClass.getConstructors();
+        if (constructors.length == 0) {
+            record(usages, psiClass, superConstructor, hierarchy);
+        }
+        for (PsiMethod constructor : constructors) {
+            if (JavaPsiConstructorUtil.findThisOrSuperCallInConstructor(constructor) == null) {
+                record(usages, constructor, superConstructor, hierarchy);
+            }
+        }
+    }
+
+    private static PsiMethod findNoArgConstructor(PsiClass psiClass) {
+        for (PsiMethod constructor : psiClass.getConstructors()) {
+            if (constructor.getParameterList().isEmpty()) {
+                return constructor;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isInJavadoc(PsiElement element) {
+        return PsiTreeUtil.getParentOfType(element, PsiDocComment.class) != null;
+    }
+
+    private void record(Map<String, Set<MemberUsage>> usages,
+                        PsiElement element,
+                        PsiMember callee,
+                        ClassHierarchySnapshot hierarchy) {
+        PsiClass ownerClass = ownerClassInScope(callee);
+        if (ownerClass == null) return;
+
+        usages.computeIfAbsent(MemberKey.of(callee), key -> new HashSet<>())
+                .add(MemberUsage.of(element, ownerClass, hierarchy));
+    }
+
+    /**
+     * The class declaring the callee, or null if the callee is not a member of the graph's scope.
+     */
+    private PsiClass ownerClassInScope(PsiMember callee) {
+        if (callee == null || !callee.isPhysical()) return null;
+        PsiFile calleeFile = callee.getContainingFile();
+        VirtualFile calleeVirtualFile = calleeFile != null ? calleeFile.getVirtualFile() : null;
+        return calleeVirtualFile != null && scope.contains(calleeVirtualFile) ? MemberKey.ownerClass(callee) : null;
+    }
+
+    /**
+     * Computes the visibility info of a member from the graph.
+     *
+     * @param hierarchy Snapshot of the current scan, answers override and subclass questions.
+     * @param stats     Receives the number of usages looked at, may be null.
+     */
+    public VisibilityInfo analyze(PsiMember member, ClassHierarchySnapshot hierarchy, ScanStatistics stats) {
+        VisibilityInfo info = VisibilityInfo.of(member);
+        if (MinimalVisibilityCheck.isExcludedFromAnalysis(member, hierarchy)) {
+            info.setPublicUsageFound(true);
+            return info;
+        }
+
+        PsiClass ownerClass = MemberKey.ownerClass(member);
+        String topLevelClassKey = MemberKey.ofTopLevelClass(member);
+        String memberPackage = MemberKey.packageOf(ownerClass);
+
+        int examined = 0;
+        try {
+            Collection<Set<MemberUsage>> usagesByFile = usagesByMember.getOrDefault(MemberKey.of(member), Map.of()).values();
+            for (Set<MemberUsage> usages : usagesByFile) {
+                for (MemberUsage usage : usages) {
+                    examined++;
+                    if (info.recordUsage(usage, topLevelClassKey, memberPackage)) {
+                        return info;
+                    }
+                }
+            }
+
+            // Usages from non-Java files (XML, Kotlin, ...) are not part of the graph, so they are searched by name,
+            // but only in the few files that mention the name at all
+            if (member.getName() != null) {
+                Map<String, Set<MemberUsage>> foreign = foreignUsages(member.getName(), hierarchy);
+                for (MemberUsage usage : foreign.getOrDefault(MemberKey.of(member), Set.of())) {
+                    examined++;
+                    if (info.recordUsage(usage, topLevelClassKey, memberPackage)) {
+                        break;
+                    }
+                }
+            }
+            return info;
+        } finally {
+            if (stats != null) {
+                stats.recordReferencesExamined(examined);
+            }
+        }
+    }
+
+    /**
+     * Usages from non-Java files of all members with the name, member key → usages.
+     * <p>
+     * The files mentioning the name are searched once for the whole name, not once per member: overloads and
+     * unrelated members sharing a common name like {@code get} would otherwise load and resolve the same files
+     * again for each of them. Every occurrence is resolved a single time and credited to the member it resolves to.
+     * <p>
+     * Kept until a file that can reference Java members changes, see
+     * {@link MinimalVisibilityScanService#invalidateIfForeignFilesChanged}, or a Java file declaring a member with the
+     * name is walked again or removed.
+     */
+    private Map<String, Set<MemberUsage>> foreignUsages(String name, ClassHierarchySnapshot hierarchy) {
+        Map<String, Set<MemberUsage>> cached = foreignUsages.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        // Not computed inside computeIfAbsent, the index query must not block other threads
+        PsiSearchHelper searchHelper = PsiSearchHelper.getInstance(project);
+        List<VirtualFile> foreignFiles = new ArrayList<>();
+        searchHelper.processCandidateFilesForText(scope, UsageSearchContext.ANY, true, name, file -> {
+            if (file.getFileType() != JavaFileType.INSTANCE) {
+                foreignFiles.add(file);
+            }
+            return true;
+        });
+        Map<String, Set<MemberUsage>> usages = new ConcurrentHashMap<>();
+        if (!foreignFiles.isEmpty()) {
+            // Files may be processed concurrently
+            searchHelper.processElementsWithWord((element, offsetInElement) -> {
+                List<PsiReference> refs = PsiReferenceService.getService()
+                        .getReferences(element, PsiReferenceService.Hints.NO_HINTS);
+                for (PsiReference ref : refs) {
+                    if (!ReferenceRange.containsOffsetInElement(ref, offsetInElement)) continue;
+                    for (PsiElement target : resolveAll(ref)) {
+                        // Members with other names are credited by the search for their own name
+                        if (!(target instanceof PsiMember callee) || !name.equals(callee.getName())) continue;
+                        PsiClass ownerClass = ownerClassInScope(callee);
+                        if (ownerClass == null) continue;
+                        usages.computeIfAbsent(MemberKey.of(callee), key -> ConcurrentHashMap.newKeySet())
+                                .add(MemberUsage.of(ref.getElement(), ownerClass, hierarchy));
+                    }
+                }
+                return true;
+            }, GlobalSearchScope.filesScope(project, foreignFiles), name, UsageSearchContext.ANY, true);
+        }
+        Map<String, Set<MemberUsage>> previous = foreignUsages.putIfAbsent(name, usages);
+        return previous != null ? previous : usages;
+    }
+
+    private static List<PsiElement> resolveAll(PsiReference ref) {
+        if (ref instanceof PsiPolyVariantReference polyReference) {
+            List<PsiElement> targets = new ArrayList<>();
+            for (ResolveResult result : polyReference.multiResolve(false)) {
+                if (result.getElement() != null) {
+                    targets.add(result.getElement());
+                }
+            }
+            return targets;
+        }
+        PsiElement target = ref.resolve();
+        return target != null ? List.of(target) : List.of();
+    }
+}
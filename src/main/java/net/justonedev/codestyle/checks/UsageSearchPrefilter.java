@@ -0,0 +1,114 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.LocalSearchScope;
+import com.intellij.psi.search.PsiSearchHelper;
+import com.intellij.psi.search.SearchScope;
+import com.intellij.psi.search.UsageSearchContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cheap pre-pass over the {@link MemberReferenceIndex} and the word index that decides how far the usages
+ * of a member can reach, before any reference is resolved.
+ * <p>
+ * Occurrences of a name are cached, so one instance should be shared by all members of a scan.
+ * Must be used inside a read action.
+ */
+public class UsageSearchPrefilter {
+
+    public enum Tier {
+        /** The name is only called from the declaring file. */
+        DECLARING_FILE,
+        /** The name is only called from Java files of the declaring package. */
+        DECLARING_PACKAGE,
+        /** The name is called from other packages or mentioned in non-Java files. */
+        PROJECT
+    }
+
+    /**
+     * @param tier        How far usages of the member can reach.
+     * @param trivial     Whether the member can be private without looking at a single reference.
+     * @param searchScope Where references of the member have to be searched.
+     */
+    public record Classification(Tier tier, boolean trivial, SearchScope searchScope) {
+
+        /**
+         * Outside of {@link Tier#PROJECT}, all usages come from the declaring package,
+         * so the search can stop as soon as package-private is needed.
+         */
+        public boolean isPackageLocal() {
+            return tier != Tier.PROJECT;
+        }
+    }
+
+    /**
+     * Where a name occurs: references in Java files from the {@link MemberReferenceIndex},
+     * and other files containing the word, which are not indexed by reference.
+     */
+    private record Occurrences(Map<VirtualFile, MemberReferenceIndex.References> javaReferences,
+                               List<VirtualFile> foreignFiles) {
+    }
+
+    private final Project project;
+    private final GlobalSearchScope scope;
+    private final Map<String, Occurrences> occurrencesByName = new ConcurrentHashMap<>();
+
+    public UsageSearchPrefilter(Project project, GlobalSearchScope scope) {
+        this.project = project;
+        this.scope = scope;
+    }
+
+    public Classification classify(PsiMember member) {
+        PsiFile file = member.getContainingFile();
+        VirtualFile declaringFile = file.getVirtualFile();
+        PsiClass ownerClass = MemberKey.ownerClass(member);
+        String declaringClass = MemberKey.ofClass(ownerClass);
+        String declaringPackage = MemberKey.packageOf(ownerClass);
+        Occurrences occurrences = occurrences(Objects.requireNonNull(member.getName()));
+
+        if (occurrences.foreignFiles().isEmpty()) {
+            Map<VirtualFile, MemberReferenceIndex.References> references = occurrences.javaReferences();
+            if (references.keySet().stream().allMatch(referencingFile -> referencingFile.equals(declaringFile))) {
+                // Only called from within the declaring class, so it can be private without looking at references
+                MemberReferenceIndex.References local = references.get(declaringFile);
+                boolean trivial = local == null || local.referencingClasses().stream().allMatch(declaringClass::equals);
+                return new Classification(Tier.DECLARING_FILE, trivial, new LocalSearchScope(file));
+            }
+            if (declaringPackage != null
+                    && references.values().stream()
+                            .allMatch(fileReferences -> declaringPackage.equals(fileReferences.packageName()))) {
+                return new Classification(Tier.DECLARING_PACKAGE, false,
+                        GlobalSearchScope.filesScope(project, references.keySet()));
+            }
+        }
+        return new Classification(Tier.PROJECT, false, scope);
+    }
+
+    private Occurrences occurrences(String name) {
+        Occurrences cached = occurrencesByName.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        List<VirtualFile> foreignFiles = new ArrayList<>();
+        PsiSearchHelper.getInstance(project).processCandidateFilesForText(scope, UsageSearchContext.ANY, true, name, file -> {
+            if (file.getFileType() != JavaFileType.INSTANCE) {
+                foreignFiles.add(file);
+            }
+            return true;
+        });
+        Occurrences occurrences = new Occurrences(MemberReferenceIndex.getReferences(name, scope), foreignFiles);
+        occurrencesByName.putIfAbsent(name, occurrences);
+        return occurrences;
+    }
+}
@@ -3,6 +3,7 @@ package net.justonedev.codestyle.checks;
 import com.intellij.psi.PsiMethod;
 import com.intellij.psi.PsiModifier;
 import com.intellij.psi.PsiModifierList;
+import com.intellij.psi.PsiModifierListOwner;
 
 public enum Visibility {
     PUBLIC(3, "public"),
@@ -45,9 +46,19 @@ public enum Visibility {
     }
 
     public static Visibility fromMethod(PsiMethod method) {
-        PsiModifierList modifierList = method.getModifierList();
+        return fromModifierListOwner(method);
+    }
+
+    /**
+     * Visibility of any member (method, constructor, field or class) as written in the code.
+     * Members without a modifier list are treated as package-private.
+     */
+    public static Visibility fromModifierListOwner(PsiModifierListOwner owner) {
+        PsiModifierList modifierList = owner.getModifierList();
         String vis;
-        if (modifierList.hasModifierProperty(PsiModifier.PUBLIC)) {
+        if (modifierList == null) {
+            vis = "package-private";
+        } else if (modifierList.hasModifierProperty(PsiModifier.PUBLIC)) {
             vis = PsiModifier.PUBLIC;
         } else if (modifierList.hasModifierProperty(PsiModifier.PROTECTED)) {
             vis = PsiModifier.PROTECTED;
@@ -60,6 +71,27 @@ public enum Visibility {
         return fromString(vis);
     }
 
+    /**
+     * Changes the modifiers of the member to this visibility. Must be called inside a write action.
+     */
+    public void applyTo(PsiModifierListOwner owner) {
+        PsiModifierList modifiers = owner.getModifierList();
+        if (modifiers == null) return;
+        // First remove existing visibility modifiers
+        modifiers.setModifierProperty(PsiModifier.PUBLIC, false);
+        modifiers.setModifierProperty(PsiModifier.PROTECTED, false);
+        modifiers.setModifierProperty(PsiModifier.PRIVATE, false);
+
+        // Then set the new one, package-private has no modifier
+        switch (this) {
+            case PUBLIC -> modifiers.setModifierProperty(PsiModifier.PUBLIC, true);
+            case PROTECTED -> modifiers.setModifierProperty(PsiModifier.PROTECTED, true);
+            case PRIVATE -> modifiers.setModifierProperty(PsiModifier.PRIVATE, true);
+            case PACKAGE_PRIVATE -> {
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return visibility;
@@ -2,15 +2,22 @@ package net.justonedev.codestyle.checks;
 
 import com.intellij.openapi.ui.ComboBox;
 import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.JBIntSpinner;
+import com.intellij.ui.components.JBTextField;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.awt.*;
+import java.time.Duration;
 
 public class VisibilityConfigDialog extends DialogWrapper {
 
     private JComboBox<String> protectedCombo;
     private JComboBox<String> packagePrivateCombo;
+    private JBIntSpinner parallelismSpinner;
+    private JComboBox<String> scopeCombo;
+    private JBTextField baseRevisionField;
+    private JBIntSpinner timeBudgetSpinner;
 
     public VisibilityConfigDialog() {
         super(true); // can be modal
@@ -20,7 +27,7 @@ public class VisibilityConfigDialog extends DialogWrapper {
 
     @Override
     protected @Nullable JComponent createCenterPanel() {
-        JPanel panel = new JPanel(new GridLayout(2, 2, 10, 10));
+        JPanel panel = new JPanel(new GridLayout(6, 2, 10, 10));
 
         // protected
         panel.add(new JLabel("protected:"));
@@ -41,6 +48,33 @@ public class VisibilityConfigDialog extends DialogWrapper {
         packagePrivateCombo.setSelectedIndex(1);
         panel.add(packagePrivateCombo);
 
+        // threads used by the scan
+        panel.add(new JLabel("Threads:"));
+        int processors = Runtime.getRuntime().availableProcessors();
+        parallelismSpinner = new JBIntSpinner(ScanOptions.DEFAULT.parallelism(), 1, Math.max(processors * 2, 2));
+        panel.add(parallelismSpinner);
+
+        // whole project, or only what changed against a base revision
+        panel.add(new JLabel("Scope:"));
+        scopeCombo = new ComboBox<>(new String[]{
+                "Whole project",
+                "Changed files"
+        });
+        panel.add(scopeCombo);
+
+        panel.add(new JLabel("Base revision:"));
+        baseRevisionField = new JBTextField("main");
+        baseRevisionField.getEmptyText().setText("Local changes only");
+        baseRevisionField.setEnabled(false);
+        scopeCombo.addActionListener(e -> baseRevisionField.setEnabled(isChangedFilesScope()));
+        panel.add(baseRevisionField);
+
+        // a scan of the whole project can stop after a while and be continued later
+        panel.add(new JLabel("Time budget (minutes, 0 = none):"));
+        timeBudgetSpinner = new JBIntSpinner(0, 0, 24 * 60);
+        scopeCombo.addActionListener(e -> timeBudgetSpinner.setEnabled(!isChangedFilesScope()));
+        panel.add(timeBudgetSpinner);
+
         return panel;
     }
 
@@ -51,4 +85,27 @@ public class VisibilityConfigDialog extends DialogWrapper {
     public String getPackagePrivateSelection() {
         return (String) packagePrivateCombo.getSelectedItem();
     }
+
+    public int getParallelism() {
+        return parallelismSpinner.getNumber();
+    }
+
+    public boolean isChangedFilesScope() {
+        return scopeCombo.getSelectedIndex() == 1;
+    }
+
+    /**
+     * Branch, tag or commit to compare against, empty for local changes only.
+     */
+    public String getBaseRevision() {
+        return baseRevisionField.getText().trim();
+    }
+
+    /**
+     * How long a scan of the whole project may run before it stops, null for no limit, see {@link ScanCheckpoint}.
+     */
+    public Duration getTimeBudget() {
+        int minutes = timeBudgetSpinner.getNumber();
+        return minutes > 0 && !isChangedFilesScope() ? Duration.ofMinutes(minutes) : null;
+    }
 }
@@ -1,7 +1,12 @@
 package net.justonedev.codestyle.checks;
 
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiMember;
+
 public class VisibilityInfo {
     private final Visibility currentLevel;
+    // Top-level classes can only be public or package-private
+    private final boolean topLevelClass;
 
     // Flags that tell us if we need at least that level
     private boolean publicUsageFound = false;
@@ -9,7 +14,20 @@ public class VisibilityInfo {
     private boolean packagePrivateUsageFound = false;
 
     public VisibilityInfo(Visibility currentLevel) {
+        this(currentLevel, false);
+    }
+
+    public VisibilityInfo(Visibility currentLevel, boolean topLevelClass) {
         this.currentLevel = currentLevel;
+        this.topLevelClass = topLevelClass;
+    }
+
+    /**
+     * Info for the member with its current visibility and nothing recorded yet.
+     */
+    public static VisibilityInfo of(PsiMember member) {
+        return new VisibilityInfo(Visibility.fromModifierListOwner(member),
+                member instanceof PsiClass && member.getContainingClass() == null);
     }
 
     public void setPublicUsageFound(boolean value) {
@@ -24,6 +42,35 @@ public class VisibilityInfo {
         packagePrivateUsageFound = packagePrivateUsageFound || value;
     }
 
+    public boolean isPublicUsageFound() {
+        return publicUsageFound;
+    }
+
+    public boolean isPackagePrivateUsageFound() {
+        return packagePrivateUsageFound;
+    }
+
+    /**
+     * Records a usage of a member declared in the given top-level class and package.
+     *
+     * @return true if the usage requires public visibility, so no further usages need to be looked at.
+     */
+    public boolean recordUsage(MemberUsage usage, String memberTopLevelClass, String memberPackage) {
+        if (usage.callerClass() == null) {
+            // If we can’t figure it out, err on the side of "public" usage
+            setPublicUsageFound(true);
+        } else if (!usage.callerClass().equals(memberTopLevelClass)) {
+            if (usage.callerPackage() != null && usage.callerPackage().equals(memberPackage)) {
+                setPackagePrivateUsageFound(true);
+            } else if (usage.subclass()) {
+                setProtectedUsageFound(true);
+            } else {
+                setPublicUsageFound(true);
+            }
+        }
+        return publicUsageFound;
+    }
+
     /**
      * Returns whether we can lower the visibility from the current level.
      */
@@ -61,6 +108,10 @@ public class VisibilityInfo {
         } else {
             newLevel = 0;
         }
+        if (topLevelClass) {
+            // Private becomes package-private, protected becomes public
+            newLevel = newLevel == 0 || newLevel == 2 ? newLevel + 1 : newLevel;
+        }
         Visibility newVis = Visibility.fromLevel(newLevel);
         return settings.shouldApplyVisibilityHint(currentLevel, newVis) ? newVis : currentLevel;
     }
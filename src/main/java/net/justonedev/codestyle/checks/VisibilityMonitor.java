@@ -0,0 +1,237 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiIdentifier;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.Alarm;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Keeps the results of the tool window current while the user edits, once it is started there.
+ * <p>
+ * Changed Java files are collected together with the names the changed code referenced before the change.
+ * Once there were no edits for a moment, everything collected is scanned like a scan of changed files, on a single
+ * background thread, so the monitor never uses more than about one core while the user types. A new edit cancels
+ * the running scan, whose files are then scanned again together with the new changes. The scan only takes
+ * read actions in smart mode, so it waits while indexing.
+ */
+@Service(Service.Level.PROJECT)
+public final class VisibilityMonitor implements Disposable {
+    private static final Logger LOG = Logger.getInstance(VisibilityMonitor.class);
+    private static final int DEBOUNCE_MILLIS = 750;
+
+    /**
+     * Receives what a scan of the monitor found.
+     */
+    public interface Listener {
+        /**
+         * Called on the EDT.
+         *
+         * @param scope   What was scanned, see {@link ChangedFilesScope#covers}.
+         * @param results Results of the scan.
+         */
+        void resultsUpdated(ChangedFilesScope scope, List<VisibilityResult> results);
+    }
+
+    private final Project project;
+    private final Alarm alarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    private final ExecutorService executor =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("Minimal Visibility Monitor", 1);
+
+    // All guarded by this
+    private final Set<VirtualFile> pendingFiles = new HashSet<>();
+    private final Set<String> pendingNames = new HashSet<>();
+    private Disposable listenerDisposable;
+    private ProgressIndicator running;
+    private VisibilitySettings settings;
+    private Listener listener;
+
+    public VisibilityMonitor(Project project) {
+        this.project = project;
+    }
+
+    public static VisibilityMonitor getInstance(Project project) {
+        return project.getService(VisibilityMonitor.class);
+    }
+
+    /**
+     * Starts listening for changes, or only replaces settings and listener if already started.
+     */
+    public synchronized void start(VisibilitySettings settings, Listener listener) {
+        this.settings = settings;
+        this.listener = listener;
+        if (listenerDisposable != null) return;
+        listenerDisposable = Disposer.newDisposable(this, "Minimal visibility monitor");
+        PsiManager.getInstance(project).addPsiTreeChangeListener(new ChangeListener(), listenerDisposable);
+    }
+
+    /**
+     * Stops listening and cancels the running scan. Changes collected so far are dropped.
+     */
+    public synchronized void stop() {
+        if (listenerDisposable == null) return;
+        Disposer.dispose(listenerDisposable);
+        listenerDisposable = null;
+        alarm.cancelAllRequests();
+        cancelRunning();
+        pendingFiles.clear();
+        pendingNames.clear();
+        listener = null;
+    }
+
+    public synchronized boolean isStarted() {
+        return listenerDisposable != null;
+    }
+
+    @Override
+    public void dispose() {
+        stop();
+    }
+
+    private void onChange(PsiTreeChangeEvent event, PsiElement removed) {
+        if (!(event.getFile() instanceof PsiJavaFile file) || !file.isPhysical() || file.getVirtualFile() == null) {
+            // Changes to other files are noticed by the next scan, see MinimalVisibilityScanService
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        if (removed != null && removed.isValid()) {
+            PsiTreeUtil.processElements(removed, element -> {
+                if (element instanceof PsiIdentifier identifier) {
+                    names.add(identifier.getText());
+                }
+                return true;
+            });
+        }
+        synchronized (this) {
+            if (listenerDisposable == null) return;
+            pendingFiles.add(file.getVirtualFile());
+            pendingNames.addAll(names);
+            // The running scan is outdated now, its files are scanned again with the new changes
+            cancelRunning();
+        }
+        alarm.cancelAllRequests();
+        alarm.addRequest(this::scanPending, DEBOUNCE_MILLIS);
+    }
+
+    private void cancelRunning() {
+        if (running != null) {
+            running.cancel();
+            running = null;
+        }
+    }
+
+    private void scanPending() {
+        Set<VirtualFile> files;
+        Set<String> removedNames;
+        VisibilitySettings scanSettings;
+        ProgressIndicator indicator = new EmptyProgressIndicator();
+        synchronized (this) {
+            if (listenerDisposable == null || pendingFiles.isEmpty()) return;
+            files = Set.copyOf(pendingFiles);
+            removedNames = Set.copyOf(pendingNames);
+            pendingFiles.clear();
+            pendingNames.clear();
+            scanSettings = settings;
+            cancelRunning();
+            running = indicator;
+        }
+        executor.execute(() -> ProgressManager.getInstance().runProcess(
+                () -> scan(files, removedNames, scanSettings, indicator), indicator));
+    }
+
+    private void scan(Set<VirtualFile> files,
+                      Set<String> removedNames,
+                      VisibilitySettings scanSettings,
+                      ProgressIndicator indicator) {
+        try {
+            ScanOptions options = new ScanOptions(1).withChangedFiles(files, removedNames);
+            List<VisibilityResult> results = MinimalVisibilityScanHelper.runScan(
+                    project, scanSettings, options, new ScanStatistics(), indicator);
+            // The same scope the scan looked at, an edit since then cancels this scan anyway
+            ChangedFilesScope scope = ReadAction.nonBlocking(() -> ChangedFilesScope.of(
+                    project, files, removedNames, GlobalSearchScope.projectScope(project)))
+                    .inSmartMode(project)
+                    .executeSynchronously();
+
+            Listener target;
+            synchronized (this) {
+                if (running != indicator) return; // cancelled or stopped meanwhile
+                running = null;
+                target = listener;
+            }
+            ApplicationManager.getApplication().invokeLater(
+                    () -> target.resultsUpdated(scope, results), ModalityState.any(), project.getDisposed());
+        } catch (ProcessCanceledException e) {
+            synchronized (this) {
+                if (listenerDisposable == null) return;
+                pendingFiles.addAll(files);
+                pendingNames.addAll(removedNames);
+            }
+            // Usually the edit that cancelled the scan scheduled the next one already, which picks these up as well
+            if (alarm.isEmpty()) {
+                alarm.addRequest(this::scanPending, DEBOUNCE_MILLIS);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Minimal visibility monitor scan failed", e);
+        }
+    }
+
+    /**
+     * Collects changes while they happen. Before the change, the old PSI is still there to take the names from.
+     */
+    private class ChangeListener extends PsiTreeChangeAdapter {
+        @Override
+        public void beforeChildRemoval(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, event.getChild());
+        }
+
+        @Override
+        public void beforeChildReplacement(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, event.getOldChild());
+        }
+
+        @Override
+        public void childAdded(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, null);
+        }
+
+        @Override
+        public void childMoved(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, null);
+        }
+
+        @Override
+        public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, null);
+        }
+
+        @Override
+        public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+            onChange(event, null);
+        }
+    }
+}
@@ -1,36 +1,160 @@
 package net.justonedev.codestyle.checks;
 
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiField;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiMember;
 import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiNameIdentifierOwner;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.util.containers.Interner;
+
+/**
+ * A member whose visibility can be lowered. The member is a method, constructor, field or class.
+ * <p>
+ * A scan can find tens of thousands of these, so a result does not hold on to any PSI: the member is kept as a
+ * smart pointer, and what the tool window shows is taken from the PSI once, when the result is created.
+ * The PSI is only resolved again to navigate to the member or to apply the result.
+ *
+ * @param pointer       Points to the member, also after the file was changed or unloaded.
+ * @param memberKey     Key of the member when the result was created, see {@link MemberKey#of(PsiMember)}.
+ * @param className     Qualified name of the class the member belongs to; for classes, the class itself.
+ * @param memberName    Name of the member, with {@code ()} for methods.
+ * @param kind          See {@link #getKindName}.
+ * @param packageName   Package of the member, empty for the default package.
+ * @param moduleName    Module of the member, or null if it is not part of one.
+ * @param oldLevel      Current visibility, see {@link Visibility#getLevel()}.
+ * @param newLevel      Suggested visibility.
+ * @param diskTimeStamp Time stamp on disk of the file the result was found in, or -1 if the file had unsaved
+ *                      changes. Together with the length, this tells after a restart whether the result is stale.
+ * @param diskLength    Length on disk of the file the result was found in, or -1.
+ */
+public record VisibilityResult(SmartPsiElementPointer<PsiMember> pointer,
+                               String memberKey,
+                               String className,
+                               String memberName,
+                               String kind,
+                               String packageName,
+                               String moduleName,
+                               byte oldLevel,
+                               byte newLevel,
+                               long diskTimeStamp,
+                               long diskLength) {
+
+    // Many results share a class name, and names like getValue() repeat across classes
+    private static final Interner<String> NAMES = Interner.createWeakInterner();
+
+    /**
+     * Creates the result for a member of the class. Must be called inside a read action.
+     *
+     * @param psiClass The class the member belongs to, the class itself for classes.
+     */
+    public static VisibilityResult of(PsiClass psiClass, PsiMember member, Visibility oldVisibility, Visibility newVisibility) {
+        String className = psiClass != null ? psiClass.getQualifiedName() : null;
+        String memberName = member instanceof PsiMethod ? member.getName() + "()" : member.getName();
+        PsiClass ownerClass = psiClass != null ? psiClass : MemberKey.ownerClass(member);
+        String packageName = ownerClass != null ? MemberKey.packageOf(ownerClass) : null;
+        Module module = ModuleUtilCore.findModuleForPsiElement(member);
+        PsiFile file = member.getContainingFile();
+        VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+        // The content of a file with unsaved changes can't be identified by what is on disk
+        boolean saved = virtualFile != null && !FileDocumentManager.getInstance().isFileModified(virtualFile);
+        return new VisibilityResult(
+                SmartPointerManager.createPointer(member),
+                MemberKey.of(member),
+                NAMES.intern(className != null ? className : "Anonymous Class"),
+                NAMES.intern(memberName != null ? memberName : "Anonymous Member"),
+                getKindName(member),
+                NAMES.intern(packageName != null ? packageName : ""),
+                module != null ? NAMES.intern(module.getName()) : null,
+                (byte) oldVisibility.getLevel(),
+                (byte) newVisibility.getLevel(),
+                saved ? virtualFile.getTimeStamp() : -1,
+                saved ? virtualFile.getLength() : -1);
+    }
+
+    /**
+     * The same result, found in the file as it was on disk with the given time stamp and length, e.g. a result saved
+     * in an earlier session.
+     */
+    public VisibilityResult withDiskState(long timeStamp, long length) {
+        return new VisibilityResult(pointer, memberKey, className, memberName, kind, packageName, moduleName,
+                oldLevel, newLevel, timeStamp, length);
+    }
 
-public record VisibilityResult(PsiClass psiClass, PsiMethod psiMethod, Visibility oldVisibility, Visibility newVisibility) {
     public String getClassName() {
-        return psiClass != null ? psiClass.getQualifiedName() : "Anonymous Class";
+        return className;
+    }
+
+    public String getMemberName() {
+        return memberName;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public Visibility oldVisibility() {
+        return Visibility.fromLevel(oldLevel);
     }
 
-    public String getMethodName() {
-        return psiMethod != null ? psiMethod.getName() : "Anonymous Method";
+    public Visibility newVisibility() {
+        return Visibility.fromLevel(newLevel);
     }
 
+    /**
+     * Kind of the member as shown to the user: Class, Constructor, Method or Field.
+     */
+    public static String getKindName(PsiMember member) {
+        if (member instanceof PsiClass) {
+            return "Class";
+        }
+        if (member instanceof PsiMethod method) {
+            return method.isConstructor() ? "Constructor" : "Method";
+        }
+        return member instanceof PsiField ? "Field" : "Member";
+    }
+
+    /**
+     * Resolves the member. Must be called inside a read action.
+     *
+     * @return The member, or null if it was deleted.
+     */
+    public PsiMember member() {
+        return pointer.getElement();
+    }
+
+    /**
+     * The file of the member, without resolving any PSI.
+     */
+    public VirtualFile getVirtualFile() {
+        return pointer.getVirtualFile();
+    }
+
+    /**
+     * Must be called inside a read action.
+     */
     public PsiFile getFile() {
-        return psiClass != null ? psiClass.getContainingFile() : null;
+        return pointer.getContainingFile();
     }
 
     /**
-     * Returns the text offset for the PSI element, usually on the method/class name.
-     * -1 if neither class nor method is set.
+     * Returns the text offset of the member name, or of the member if it has no name.
+     * Resolves the member, so must be called inside a read action. 0 if the member was deleted.
      */
     public int getOffset() {
-        if (psiMethod != null) {
-            // Prefer the method name offset, otherwise fall back to overall method offset
-            var nameId = psiMethod.getNameIdentifier();
-            return (nameId != null) ? nameId.getTextOffset() : psiMethod.getTextOffset();
-        } else if (psiClass != null) {
-            // Prefer the class name offset, otherwise fall back to overall class offset
-            var nameId = psiClass.getNameIdentifier();
-            return (nameId != null) ? nameId.getTextOffset() : psiClass.getTextOffset();
+        PsiMember member = member();
+        if (member == null) {
+            return 0;
+        }
+        if (member instanceof PsiNameIdentifierOwner owner && owner.getNameIdentifier() != null) {
+            return owner.getNameIdentifier().getTextOffset();
         }
-        return 0;
+        return member.getTextOffset();
     }
 }
@@ -0,0 +1,17 @@
+package net.justonedev.codestyle.checks;
+
+import java.util.List;
+
+/**
+ * Receives the results of a scan batch by batch while the scan is still running.
+ * <p>
+ * Called on the thread that runs the scan, outside of any read action.
+ */
+@FunctionalInterface
+public interface VisibilityResultSink {
+
+    /**
+     * Called once per finished batch with a non-empty list of results.
+     */
+    void accept(List<VisibilityResult> results);
+}
@@ -24,6 +24,17 @@ public record VisibilitySettings(PackagePrivateStatus usePackagePrivate, Protect
         static PackagePrivateStatus get(String value) {
             return value.equals("use") ? USE : NEVER;
         }
+
+        /**
+         * Like {@link #get}, but rejects values other than {@code use} and {@code never}.
+         */
+        static PackagePrivateStatus parse(String value) {
+            return switch (value) {
+                case "use" -> USE;
+                case "never" -> NEVER;
+                default -> throw new IllegalArgumentException("Unknown package-private setting: " + value);
+            };
+        }
     }
     public enum ProtectedStatus {
         USE, WHEN_INHERITED, NEVER;
@@ -35,5 +46,17 @@ public record VisibilitySettings(PackagePrivateStatus usePackagePrivate, Protect
                 default -> WHEN_INHERITED;
             };
         }
+
+        /**
+         * Like {@link #get}, but rejects values other than {@code use}, {@code when-inherited} and {@code never}.
+         */
+        static ProtectedStatus parse(String value) {
+            return switch (value) {
+                case "use" -> USE;
+                case "when-inherited" -> WHEN_INHERITED;
+                case "never" -> NEVER;
+                default -> throw new IllegalArgumentException("Unknown protected setting: " + value);
+            };
+        }
     }
 }
@@ -1,16 +1,83 @@
 package net.justonedev.codestyle.checks;
 
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+
 import javax.swing.table.AbstractTableModel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+/**
+ * Rows of the tool window: the results, and a header row per group if they are grouped.
+ * <p>
+ * Everything shown is precomputed in the {@link VisibilityResult}s, so painting never touches the PSI.
+ * Sorting, filtering and grouping work on arrays of result indices. The sort order of all results is kept,
+ * and new results are merged into it as they arrive. Typing more of the filter text only looks at the previous
+ * matches. Groups are built from the filtered order in a single pass.
+ */
 public class VisibilityTableModel extends AbstractTableModel {
-    private final String[] columns = {"Class", "Method", "From", "To"};
+
+    /**
+     * What the rows can be grouped by.
+     */
+    public enum GroupBy {
+        NONE("No grouping"),
+        PACKAGE("Package"),
+        MODULE("Module"),
+        VISIBILITY("Suggested visibility");
+
+        private final String displayName;
+
+        GroupBy(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    /**
+     * A group header row.
+     *
+     * @param count Number of results in the group that pass the filter.
+     */
+    private record Group(String key, int count) {
+    }
+
+    private static final int STATUS_COLUMN = 5;
+
+    private final String[] columns = {"Class", "Member", "Kind", "From", "To", "Status"};
     private List<VisibilityResult> data = new ArrayList<>();
+    // Files changed since the rows were found, e.g. while the IDE was closed
+    private Set<VirtualFile> staleFiles = Set.of();
+
+    private int sortColumn = -1;
+    private boolean ascending = true;
+    private String filter = "";
+    private GroupBy groupBy = GroupBy.NONE;
+    private final Set<String> collapsedGroups = new HashSet<>();
+
+    // Indices into data: all results in sort order, and the ones of them that pass the filter
+    private int[] sortOrder = new int[0];
+    private int[] visible = new int[0];
+    // What the table shows: indices into data, or -(index into groups + 1) for group header rows
+    private int[] view = new int[0];
+    private final List<Group> groups = new ArrayList<>();
 
     @Override
     public int getRowCount() {
-        return data.size();
+        return view.length;
     }
 
     @Override
@@ -18,35 +85,352 @@ public class VisibilityTableModel extends AbstractTableModel {
         return columns.length;
     }
 
+    /**
+     * The column name, with an arrow for the column the rows are sorted by.
+     */
     @Override
     public String getColumnName(int column) {
-        return columns[column];
+        return column == sortColumn ? columns[column] + (ascending ? " ▲" : " ▼") : columns[column];
     }
 
     @Override
     public Object getValueAt(int rowIndex, int columnIndex) {
-        VisibilityResult row = data.get(rowIndex);
+        int index = view[rowIndex];
+        if (index < 0) {
+            if (columnIndex != 0) return "";
+            Group group = groups.get(-index - 1);
+            return (collapsedGroups.contains(group.key()) ? "▶ " : "▼ ") + group.key() + " (" + group.count() + ")";
+        }
+        VisibilityResult row = data.get(index);
         return switch (columnIndex) {
             case 0 -> row.getClassName();
-            case 1 -> row.getMethodName();
-            case 2 -> {
-                Visibility oldVis = row.oldVisibility();
-                yield (oldVis != null) ? oldVis.name() : "";
-            }
-            case 3 -> {
-                Visibility newVis = row.newVisibility();
-                yield (newVis != null) ? newVis.name() : "";
-            }
+            case 1 -> row.getMemberName();
+            case 2 -> row.getKind();
+            case 3 -> row.oldVisibility().name();
+            case 4 -> row.newVisibility().name();
+            case STATUS_COLUMN -> isStale(row) ? "Stale" : "";
             default -> "";
         };
     }
 
     public void setResults(List<VisibilityResult> newData) {
-        this.data = newData;
-        fireTableDataChanged();
+        this.data = new ArrayList<>(newData);
+        this.staleFiles = Set.of();
+        resort();
+    }
+
+    /**
+     * Marks the rows of the given files as stale: the files changed since, so the rows may no longer be right.
+     */
+    public void setStaleFiles(Set<VirtualFile> files) {
+        this.staleFiles = Set.copyOf(files);
+        resort();
+    }
+
+    public Set<VirtualFile> getStaleFiles() {
+        return staleFiles;
+    }
+
+    private boolean isStale(VisibilityResult row) {
+        return !staleFiles.isEmpty() && staleFiles.contains(row.getVirtualFile());
     }
 
+    /**
+     * Replaces the rows a rescan of the stale files looked at, like {@link #replaceResults}, and marks no file stale
+     * anymore.
+     */
+    public void replaceStaleResults(ChangedFilesScope scope, List<VisibilityResult> rescanned) {
+        staleFiles = Set.of();
+        replaceResults(scope, rescanned);
+    }
+
+    /**
+     * Replaces the rows a scan of changed files looked at with what it found, see {@link ChangedFilesScope#covers}.
+     * Rows are matched by file, member key and name only, so no PSI is needed.
+     */
+    public void replaceResults(ChangedFilesScope scope, List<VisibilityResult> rescanned) {
+        data.removeIf(scope::covers);
+        data.addAll(rescanned);
+        resort();
+    }
+
+    /**
+     * Drops the rows of members declared in the files.
+     */
+    public void removeResults(Set<VirtualFile> files) {
+        data.removeIf(row -> files.contains(row.getVirtualFile()));
+        resort();
+    }
+
+    public void clear() {
+        setResults(new ArrayList<>());
+    }
+
+    /**
+     * Appends the results. Without sorting, filter and groups, this fires a single insert event for all of them.
+     */
+    public void addResults(List<VisibilityResult> newData) {
+        if (newData.isEmpty()) return;
+        int firstIndex = data.size();
+        data.addAll(newData);
+        int[] added = new int[newData.size()];
+        Arrays.setAll(added, i -> firstIndex + i);
+
+        if (sortColumn < 0 && filter.isEmpty() && groupBy == GroupBy.NONE) {
+            int firstRow = view.length;
+            sortOrder = concat(sortOrder, added);
+            visible = sortOrder;
+            view = visible;
+            fireTableRowsInserted(firstRow, view.length - 1);
+            return;
+        }
+        added = sort(added);
+        sortOrder = merge(sortOrder, added);
+        visible = merge(visible, filter(added));
+        rebuildView();
+    }
+
+    /**
+     * Removes the given results, e.g. after they were applied.
+     */
+    public void removeResults(Collection<VisibilityResult> removed) {
+        if (removed.isEmpty()) return;
+        Set<VisibilityResult> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+        toRemove.addAll(removed);
+        data.removeIf(toRemove::contains);
+        resort();
+    }
+
+    /**
+     * All results, also the ones hidden by the filter or in collapsed groups.
+     */
+    public List<VisibilityResult> getResults() {
+        return Collections.unmodifiableList(data);
+    }
+
+    /**
+     * The results that pass the filter, in sort order, also the ones in collapsed groups.
+     */
+    public List<VisibilityResult> getVisibleResults() {
+        List<VisibilityResult> results = new ArrayList<>(visible.length);
+        for (int index : visible) {
+            results.add(data.get(index));
+        }
+        return results;
+    }
+
+    /**
+     * The result shown in the row, or null for group header rows.
+     */
     public VisibilityResult getResultAt(int rowIndex) {
-        return data.get(rowIndex);
+        int index = view[rowIndex];
+        return index >= 0 ? data.get(index) : null;
+    }
+
+    public boolean isGroupRow(int rowIndex) {
+        return view[rowIndex] < 0;
+    }
+
+    /**
+     * Collapses or expands the group of a header row.
+     */
+    public void toggleGroup(int rowIndex) {
+        if (!isGroupRow(rowIndex)) return;
+        String key = groups.get(-view[rowIndex] - 1).key();
+        if (!collapsedGroups.remove(key)) {
+            collapsedGroups.add(key);
+        }
+        rebuildView();
+    }
+
+    /**
+     * Sorts by the column, or reverses the order if the rows are already sorted by it.
+     */
+    public void sortBy(int column) {
+        if (column == sortColumn) {
+            ascending = !ascending;
+        } else {
+            sortColumn = column;
+            ascending = true;
+        }
+        resort();
+    }
+
+    /**
+     * Shows only the results whose class or member name contains the text, ignoring case.
+     */
+    public void setFilter(String text) {
+        String newFilter = text.trim();
+        if (newFilter.equals(filter)) return;
+        // If the text only got longer, nothing that was filtered out can match again
+        int[] candidates = !filter.isEmpty() && StringUtil.containsIgnoreCase(newFilter, filter) ? visible : sortOrder;
+        filter = newFilter;
+        visible = filter(candidates);
+        rebuildView();
+    }
+
+    public void setGroupBy(GroupBy groupBy) {
+        if (this.groupBy == groupBy) return;
+        this.groupBy = groupBy;
+        collapsedGroups.clear();
+        rebuildView();
+    }
+
+    private void resort() {
+        int[] all = new int[data.size()];
+        Arrays.setAll(all, i -> i);
+        sortOrder = sort(all);
+        visible = filter(sortOrder);
+        rebuildView();
+    }
+
+    private void rebuildView() {
+        groups.clear();
+        if (groupBy == GroupBy.NONE) {
+            view = visible;
+            fireTableDataChanged();
+            return;
+        }
+
+        // 1. Split the filtered results by group, keeping the sort order within each group
+        Map<String, IndexList> byGroup = new TreeMap<>();
+        for (int index : visible) {
+            byGroup.computeIfAbsent(groupKey(data.get(index)), key -> new IndexList()).add(index);
+        }
+
+        // 2. A header per group, followed by its rows unless it is collapsed
+        IndexList rows = new IndexList();
+        byGroup.forEach((key, indices) -> {
+            groups.add(new Group(key, indices.size));
+            rows.add(-groups.size());
+            if (!collapsedGroups.contains(key)) {
+                rows.addAll(indices);
+            }
+        });
+        view = rows.toArray();
+        fireTableDataChanged();
+    }
+
+    private String groupKey(VisibilityResult result) {
+        return switch (groupBy) {
+            case PACKAGE -> result.packageName().isEmpty() ? "(default package)" : result.packageName();
+            case MODULE -> result.moduleName() != null ? result.moduleName() : "(no module)";
+            case VISIBILITY -> result.newVisibility().getVisibility();
+            case NONE -> "";
+        };
+    }
+
+    private int[] filter(int[] indices) {
+        if (filter.isEmpty()) return indices;
+        IndexList matches = new IndexList();
+        for (int index : indices) {
+            VisibilityResult result = data.get(index);
+            if (StringUtil.containsIgnoreCase(result.getClassName(), filter)
+                    || StringUtil.containsIgnoreCase(result.getMemberName(), filter)) {
+                matches.add(index);
+            }
+        }
+        return matches.toArray();
+    }
+
+    private int[] sort(int[] indices) {
+        if (sortColumn < 0) return indices;
+        int[] sorted = indices.clone();
+        mergeSort(sorted, indices.clone(), 0, sorted.length, indexComparator());
+        return sorted;
+    }
+
+    /**
+     * Sorts {@code values} from {@code from} to {@code to} on the primitive indices, so sorting 100k rows doesn't box
+     * every index. {@code buffer} must hold the same values, it is used as scratch space.
+     */
+    private static void mergeSort(int[] values, int[] buffer, int from, int to, IndexComparator comparator) {
+        if (to - from < 2) return;
+        int middle = (from + to) >>> 1;
+        // Sort both halves into the buffer, then merge them back
+        mergeSort(buffer, values, from, middle, comparator);
+        mergeSort(buffer, values, middle, to, comparator);
+        int i = from;
+        int j = middle;
+        for (int k = from; k < to; k++) {
+            values[k] = j >= to || i < middle && comparator.compare(buffer[i], buffer[j]) <= 0 ? buffer[i++] : buffer[j++];
+        }
+    }
+
+    /**
+     * Merges two index arrays that are both in sort order.
+     */
+    private int[] merge(int[] first, int[] second) {
+        if (sortColumn < 0) return concat(first, second);
+        IndexComparator comparator = indexComparator();
+        int[] merged = new int[first.length + second.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < first.length && j < second.length) {
+            merged[k++] = comparator.compare(first[i], second[j]) <= 0 ? first[i++] : second[j++];
+        }
+        while (i < first.length) merged[k++] = first[i++];
+        while (j < second.length) merged[k++] = second[j++];
+        return merged;
+    }
+
+    /**
+     * Compares result indices by the sort column. Equal rows stay in the order they were found.
+     */
+    private IndexComparator indexComparator() {
+        Comparator<VisibilityResult> byColumn = switch (sortColumn) {
+            case 0 -> Comparator.comparing(VisibilityResult::getClassName);
+            case 1 -> Comparator.comparing(VisibilityResult::getMemberName);
+            case 2 -> Comparator.comparing(VisibilityResult::getKind);
+            case 3 -> Comparator.comparingInt(VisibilityResult::oldLevel);
+            case 4 -> Comparator.comparingInt(VisibilityResult::newLevel);
+            default -> Comparator.comparing(this::isStale);
+        };
+        Comparator<VisibilityResult> ordered = ascending ? byColumn : byColumn.reversed();
+        return (first, second) -> {
+            int result = ordered.compare(data.get(first), data.get(second));
+            return result != 0 ? result : Integer.compare(first, second);
+        };
+    }
+
+    /**
+     * Compares two result indices without boxing them.
+     */
+    private interface IndexComparator {
+        int compare(int first, int second);
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * Growable int array, so building the rows of 100k results doesn't box every index.
+     */
+    private static final class IndexList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(IndexList other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, size * 2));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
     }
 }
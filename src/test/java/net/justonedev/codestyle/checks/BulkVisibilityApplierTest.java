@@ -0,0 +1,157 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.command.undo.UndoManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.PsiModifier;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies scan results like Apply All in the tool window does, with members changing in between.
+ */
+public class BulkVisibilityApplierTest extends LightJavaCodeInsightFixtureTestCase {
+    private static final VisibilitySettings SETTINGS = VisibilitySettings.DEFAULT;
+
+    private PsiClass psiClass;
+    private PsiFile other;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        MinimalVisibilityScanService.getInstance(getProject()).invalidate(null);
+        psiClass = ((PsiJavaFile) myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public void foo() {}
+                    public void bar() {}
+                    public void baz() {}
+                }
+                """)).getClasses()[0];
+        other = myFixture.addFileToProject("b/B.java", """
+                package b;
+                public class B {
+                }
+                """);
+    }
+
+    public void testMemberChangedSinceScanIsSkippedAndOneUndoRevertsTheRest() {
+        List<VisibilityResult> results = scanResults();
+        // Changed by hand after the scan
+        WriteCommandAction.runWriteCommandAction(getProject(), () ->
+                method("bar").getModifierList().setModifierProperty(PsiModifier.PROTECTED, true));
+
+        BulkVisibilityApplier.Outcome outcome = apply(new EditingApplier(results, 0));
+        assertEquals(List.of(results.get(0), results.get(2)), outcome.applied());
+        assertEquals(1, outcome.skipped());
+        assertEquals(Visibility.PRIVATE, Visibility.fromModifierListOwner(method("foo")));
+        assertEquals(Visibility.PROTECTED, Visibility.fromModifierListOwner(method("bar")));
+        assertEquals(Visibility.PRIVATE, Visibility.fromModifierListOwner(method("baz")));
+
+        UndoManager.getInstance(getProject()).undo(null);
+        PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+        assertEquals(Visibility.PUBLIC, Visibility.fromModifierListOwner(method("foo")));
+        assertEquals(Visibility.PROTECTED, Visibility.fromModifierListOwner(method("bar")));
+        assertEquals(Visibility.PUBLIC, Visibility.fromModifierListOwner(method("baz")));
+    }
+
+    public void testChunkIsCheckedAgainAfterEditBeforeWrite() {
+        List<VisibilityResult> results = scanResults();
+        EditingApplier applier = new EditingApplier(results, BulkVisibilityApplier.MAX_ATTEMPTS - 1);
+
+        BulkVisibilityApplier.Outcome outcome = apply(applier);
+        assertEquals(0, applier.editsLeft);
+        assertEquals(results, outcome.applied());
+        assertEquals(0, outcome.skipped());
+        assertEquals(Visibility.PRIVATE, Visibility.fromModifierListOwner(method("foo")));
+    }
+
+    public void testChunkIsSkippedIfEveryAttemptIsEdited() {
+        List<VisibilityResult> results = scanResults();
+        EditingApplier applier = new EditingApplier(results, BulkVisibilityApplier.MAX_ATTEMPTS);
+
+        BulkVisibilityApplier.Outcome outcome = apply(applier);
+        assertEquals(0, applier.editsLeft);
+        assertEmpty(outcome.applied());
+        assertEquals(results.size(), outcome.skipped());
+        for (String name : List.of("foo", "bar", "baz")) {
+            assertEquals(Visibility.PUBLIC, Visibility.fromModifierListOwner(method(name)));
+        }
+    }
+
+    /**
+     * Edits another file right before each of the first writes, like the user typing meanwhile.
+     */
+    private final class EditingApplier extends BulkVisibilityApplier {
+        private final List<Outcome> outcome;
+        private int editsLeft;
+
+        EditingApplier(List<VisibilityResult> results, int edits) {
+            this(results, edits, new ArrayList<>());
+        }
+
+        private EditingApplier(List<VisibilityResult> results, int edits, List<Outcome> outcome) {
+            super(BulkVisibilityApplierTest.this.getProject(), results, SETTINGS, outcome::add);
+            this.outcome = outcome;
+            this.editsLeft = edits;
+        }
+
+        @Override
+        long getModificationCount() {
+            // The write side runs on the EDT, the check in a background read action
+            if (editsLeft > 0 && ApplicationManager.getApplication().isDispatchThread()) {
+                editsLeft--;
+                PsiDocumentManager documents = PsiDocumentManager.getInstance(getProject());
+                Document document = documents.getDocument(other);
+                WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+                    document.insertString(0, "// typing\n");
+                    documents.commitDocument(document);
+                });
+            }
+            return super.getModificationCount();
+        }
+    }
+
+    private List<VisibilityResult> scanResults() {
+        List<VisibilityResult> results = new ArrayList<>();
+        for (String name : List.of("foo", "bar", "baz")) {
+            PsiMember member = method(name);
+            VisibilityInfo info = MinimalVisibilityScanService.getInstance(getProject()).analyzeMember(member);
+            assertTrue(info.canLowerVisibility(SETTINGS));
+            results.add(VisibilityResult.of(psiClass, member, Visibility.PUBLIC, info.getSuggestedLevel(SETTINGS)));
+        }
+        return results;
+    }
+
+    /**
+     * Runs the applier like the progress manager does, and returns what it reports when finished.
+     */
+    private static BulkVisibilityApplier.Outcome apply(EditingApplier applier) {
+        ProgressIndicator indicator = new EmptyProgressIndicator();
+        Future<?> future = ApplicationManager.getApplication().executeOnPooledThread(() ->
+                ProgressManager.getInstance().runProcess(() -> applier.run(indicator), indicator));
+        PlatformTestUtil.waitForFuture(future, TimeUnit.MINUTES.toMillis(1));
+        applier.onFinished();
+        assertEquals(1, applier.outcome.size());
+        return applier.outcome.get(0);
+    }
+
+    private PsiMember method(String name) {
+        PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+        return myFixture.findClass("a.A").findMethodsByName(name, false)[0];
+    }
+}
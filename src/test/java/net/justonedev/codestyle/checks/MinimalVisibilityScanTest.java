@@ -0,0 +1,472 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.searches.AllClassesSearch;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+import com.intellij.util.containers.ContainerUtil;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the scan on small projects, like the tool window does, and checks what it suggests.
+ */
+public class MinimalVisibilityScanTest extends LightJavaCodeInsightFixtureTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The light project is shared by all tests, so is the graph of the last scan
+        MinimalVisibilityScanService.getInstance(getProject()).invalidate(null);
+    }
+
+    public void testIncrementalScanAfterSignatureChange() {
+        PsiFile a = myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public void foo(long value) {}
+                }
+                """);
+        myFixture.addFileToProject("b/B.java", """
+                package b;
+                public class B {
+                    public void bar() { new a.A().foo(1); }
+                }
+                """);
+        runScan();
+
+        replaceText(a, "foo(long value)", "foo(int value)");
+        Set<String> incremental = runScan();
+        assertEquals(fullScan(), incremental);
+        assertFalse(incremental.contains("a.A#foo(int) -> private"));
+    }
+
+    public void testIncrementalScanAfterAddedOverload() {
+        PsiFile a = myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public void foo(long value) {}
+                }
+                """);
+        myFixture.addFileToProject("b/B.java", """
+                package b;
+                public class B {
+                    public void bar() { new a.A().foo(1); }
+                }
+                """);
+        runScan();
+
+        // The call in B now resolves to the new overload
+        replaceText(a, "public void foo(long value) {}",
+                "public void foo(long value) {}\n    public void foo(int value) {}");
+        Set<String> incremental = runScan();
+        assertEquals(fullScan(), incremental);
+        assertFalse(incremental.contains("a.A#foo(int) -> private"));
+    }
+
+    public void testOverloadsMatchReferencesSearch() {
+        myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public void foo(int value) {}
+                    public void foo(long value) {}
+                }
+                """);
+        myFixture.addFileToProject("b/B.java", """
+                package b;
+                public class B {
+                    public void bar() { new a.A().foo(1); }
+                }
+                """);
+        Set<String> scanned = runScan();
+        assertEquals(referencesSearchScan(), scanned);
+        assertTrue(scanned.contains("a.A#foo(long) -> private"));
+        assertFalse(scanned.contains("a.A#foo(int) -> private"));
+    }
+
+    public void testImplicitSuperCallMatchesReferencesSearch() {
+        myFixture.addFileToProject("a/Base.java", """
+                package a;
+                public class Base {
+                    public Base() {}
+                }
+                """);
+        myFixture.addFileToProject("b/Sub.java", """
+                package b;
+                public class Sub extends a.Base {
+                    public Sub() {}
+                }
+                """);
+        Set<String> scanned = runScan();
+        assertEquals(referencesSearchScan(), scanned);
+        assertFalse(scanned.contains("a.Base#Base() -> private"));
+    }
+
+    public void testSubclassInOtherPackageMatchesReferencesSearch() {
+        myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public void hook() {}
+                    public void unused() {}
+                }
+                """);
+        myFixture.addFileToProject("b/B.java", """
+                package b;
+                public class B extends a.A {
+                    public void run() { hook(); }
+                }
+                """);
+        Set<String> scanned = runScan();
+        assertEquals(referencesSearchScan(), scanned);
+        assertFalse(scanned.contains("a.A#hook() -> private"));
+        assertTrue(scanned.contains("a.A#unused() -> private"));
+    }
+
+    public void testAnonymousAndLocalOverridersMatchReferencesSearch() {
+        myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public void run() {}
+                    public void walk() {}
+                }
+                """);
+        myFixture.addFileToProject("b/B.java", """
+                package b;
+                public class B {
+                    public void anonymous() {
+                        new a.A() {
+                            @Override
+                            public void run() {}
+                        };
+                    }
+
+                    public void local() {
+                        class Local extends a.A {
+                            @Override
+                            public void walk() {}
+                        }
+                    }
+                }
+                """);
+        Set<String> scanned = runScan();
+        assertEquals(referencesSearchScan(), scanned);
+        // Overridden methods keep their visibility
+        assertFalse(scanned.stream().anyMatch(result -> result.startsWith("a.A#run()")));
+        assertFalse(scanned.stream().anyMatch(result -> result.startsWith("a.A#walk()")));
+    }
+
+    public void testIncrementalScanMatchesReferencesSearchAfterEdit() {
+        myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public void foo() {}
+                    public void bar() {}
+                }
+                """);
+        PsiFile b = myFixture.addFileToProject("b/B.java", """
+                package b;
+                public class B {
+                    public void call() { new a.A().foo(); }
+                }
+                """);
+        assertEquals(referencesSearchScan(), runScan());
+
+        replaceText(b, "new a.A().foo();", "new a.A().bar();");
+        Set<String> incremental = runScan();
+        assertEquals(referencesSearchScan(), incremental);
+        assertTrue(incremental.contains("a.A#foo() -> private"));
+        assertFalse(incremental.contains("a.A#bar() -> private"));
+    }
+
+    public void testEditAboveAnonymousClassKeepsGraph() {
+        myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public void foo() {}
+                }
+                """);
+        PsiFile b = myFixture.addFileToProject("b/B.java", """
+                package b;
+                public class B {
+                    public void call() {
+                        new a.A().foo();
+                        Runnable runnable = new Runnable() {
+                            @Override
+                            public void run() {}
+                        };
+                    }
+                }
+                """);
+        runScan();
+
+        // Shifts the offset of the anonymous class, but declares nothing new
+        replaceText(b, "Runnable runnable", "// moved down a line\n        Runnable runnable");
+        UsageGraph graph = MinimalVisibilityScanService.getInstance(getProject()).getUsageGraph();
+        String module = ModulePartition.moduleOf(b.getVirtualFile(), getProject());
+        ReadAction.run(() -> {
+            // Not null, i.e. the hierarchy did not change and the graph is kept
+            assertNotNull(graph.updateFile((PsiJavaFile) b, module, false, null));
+            assertNotNull(graph.updateFile((PsiJavaFile) b, module, true, null));
+        });
+        assertEmpty(graph.takeChangedDeclarations());
+        assertEquals(fullScan(), runScan());
+    }
+
+    public void testParallelScanMatchesSingleThreadedScan() {
+        myFixture.addFileToProject("a/Base.java", """
+                package a;
+                public class Base {
+                    public void hook() {}
+                    public void helper() {}
+                    protected void unused() {}
+                }
+                """);
+        // Several batches per thread, with overrides and calls across packages
+        for (int i = 0; i < 150; i++) {
+            myFixture.addFileToProject("p" + i % 3 + "/Sub" + i + ".java", """
+                    package p%d;
+                    public class Sub%d extends a.Base {
+                        public static int counter;
+                        @Override
+                        public void hook() { helper(); }
+                        public void call() { new Sub%d().hook(); counter++; }
+                        public void own() {}
+                    }
+                    """.formatted(i % 3, i, (i + 1) % 150));
+        }
+        invalidateGraph();
+        List<String> single = scanInOrder(new ScanOptions(1));
+        invalidateGraph();
+        List<String> parallel = scanInOrder(new ScanOptions(4));
+        assertFalse(single.isEmpty());
+        // Same results in the same order, batches are handed over in order
+        assertEquals(single, parallel);
+    }
+
+    public void testChangedFileOnlyBringsInTheMembersItReferences() {
+        myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public int size() { return 0; }
+                }
+                """);
+        myFixture.addFileToProject("c/C.java", """
+                package c;
+                public class C {
+                    public int size() { return 1; }
+                }
+                """);
+        PsiFile b = myFixture.addFileToProject("b/B.java", """
+                package b;
+                public class B {
+                    public int call() { return new a.A().size(); }
+                }
+                """);
+        ReadAction.run(() -> {
+            ChangedFilesScope scope = ChangedFilesScope.of(getProject(), Set.of(b.getVirtualFile()), Set.of(),
+                    GlobalSearchScope.projectScope(getProject()));
+            List<String> classes = ContainerUtil.map(scope.getClasses(), PsiClass::getQualifiedName);
+            assertContainsElements(classes, "a.A", "b.B");
+            // Declares a size() as well, but B doesn't call it
+            assertDoesntContain(classes, "c.C");
+        });
+    }
+
+    public void testFullScanJoinsRunningScanPastFirstBatch() {
+        // More classes than fit into one batch
+        for (int i = 0; i < 60; i++) {
+            myFixture.addFileToProject("a/C" + i + ".java", """
+                    package a;
+                    public class C%d {
+                        public void unused() {}
+                    }
+                    """.formatted(i));
+        }
+        MinimalVisibilityScanService service = MinimalVisibilityScanService.getInstance(getProject());
+        MinimalVisibilityScanService.ScanRequest first = fullScanRequest();
+        AtomicInteger batches = new AtomicInteger();
+        AtomicInteger doneWhenJoined = new AtomicInteger();
+        AtomicReference<MinimalVisibilityScanService.ScanRequest> joined = new AtomicReference<>();
+        AtomicBoolean over = new AtomicBoolean();
+        MinimalVisibilityScanService.ScanListener listener = new MinimalVisibilityScanService.ScanListener() {
+            @Override
+            public void accept(List<VisibilityResult> results) {
+                if (batches.incrementAndGet() != 2) return;
+                doneWhenJoined.set(first.options().checkpoint().getDoneClassCount());
+                joined.set(service.scan(fullScanRequest(), new MinimalVisibilityScanService.ScanListener() {
+                    @Override
+                    public void accept(List<VisibilityResult> results) {
+                    }
+
+                    @Override
+                    public void scanFinished(ScanStatistics stats, boolean partial) {
+                    }
+
+                    @Override
+                    public void scanCancelled(ScanStatistics stats) {
+                    }
+
+                    @Override
+                    public void scanFailed(Throwable error) {
+                    }
+                }));
+            }
+
+            @Override
+            public void scanFinished(ScanStatistics stats, boolean partial) {
+                over.set(true);
+            }
+
+            @Override
+            public void scanCancelled(ScanStatistics stats) {
+                over.set(true);
+            }
+
+            @Override
+            public void scanFailed(Throwable error) {
+                over.set(true);
+            }
+        };
+        // Scans run on the calling thread in tests, which must not be the EDT
+        Future<?> future = ApplicationManager.getApplication().executeOnPooledThread(() -> service.scan(first, listener));
+        PlatformTestUtil.waitForFuture(future, TimeUnit.MINUTES.toMillis(1));
+        PlatformTestUtil.waitWithEventsDispatching("The scan did not finish", over::get, 60);
+
+        assertTrue(doneWhenJoined.get() > 0);
+        // Joined the running scan instead of queueing a second one
+        assertSame(first, joined.get());
+    }
+
+    public void testBudgetedSlicesMatchUnbudgetedScan() {
+        myFixture.addFileToProject("a/Base.java", """
+                package a;
+                public class Base {
+                    public void hook() {}
+                    public void unused() {}
+                }
+                """);
+        // Several batches of subclasses, so overrides cross the slices
+        for (int i = 0; i < 120; i++) {
+            myFixture.addFileToProject("b/Sub" + i + ".java", """
+                    package b;
+                    public class Sub%d extends a.Base {
+                        @Override
+                        public void hook() {}
+                        public void own() {}
+                    }
+                    """.formatted(i));
+        }
+        // Used up before the first batch is analyzed, so every slice analyzes exactly one batch
+        ScanCheckpoint checkpoint = new ScanCheckpoint(Duration.ofMillis(1));
+        Set<String> sliced = new TreeSet<>();
+        int slices = 0;
+        while (!checkpoint.isComplete()) {
+            assertTrue("The scan does not get any further", ++slices <= 10);
+            sliced.addAll(runScan(ScanOptions.DEFAULT.withCheckpoint(checkpoint)));
+        }
+        assertTrue(slices > 1);
+        assertEquals(fullScan(), sliced);
+    }
+
+    private static MinimalVisibilityScanService.ScanRequest fullScanRequest() {
+        return new MinimalVisibilityScanService.ScanRequest(VisibilitySettings.DEFAULT,
+                ScanOptions.DEFAULT.withCheckpoint(new ScanCheckpoint(null)), null);
+    }
+
+    private void replaceText(PsiFile file, String oldText, String newText) {
+        PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+        Document document = documentManager.getDocument(file);
+        assertNotNull(document);
+        int offset = document.getText().indexOf(oldText);
+        assertTrue(oldText, offset >= 0);
+        WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+            document.replaceString(offset, offset + oldText.length(), newText);
+            documentManager.commitDocument(document);
+        });
+    }
+
+    /**
+     * Scans like {@link #runScan()}, but without anything the previous scans left behind.
+     */
+    private Set<String> fullScan() {
+        invalidateGraph();
+        return runScan();
+    }
+
+    private void invalidateGraph() {
+        MinimalVisibilityScanService.getInstance(getProject()).invalidate(null);
+    }
+
+    /**
+     * Analyzes every member of the project on its own with {@link MinimalVisibilityCheck#analyzeMemberUsage}, which
+     * searches references instead of using the usage graph. The scan has to come to the same results.
+     *
+     * @return Member key and suggested visibility of every member whose visibility can be lowered.
+     */
+    private Set<String> referencesSearchScan() {
+        return ReadAction.compute(() -> {
+            Set<String> found = new TreeSet<>();
+            for (PsiClass psiClass : AllClassesSearch.search(GlobalSearchScope.projectScope(getProject()), getProject())
+                    .findAll()) {
+                for (PsiMember member : MinimalVisibilityCheck.getAnalyzedMembers(psiClass)) {
+                    VisibilityInfo info = MinimalVisibilityCheck.analyzeMemberUsage(member, getProject());
+                    if (info.canLowerVisibility(VisibilitySettings.DEFAULT)) {
+                        found.add(MemberKey.of(member) + " -> " + info.getSuggestedLevel(VisibilitySettings.DEFAULT));
+                    }
+                }
+            }
+            return found;
+        });
+    }
+
+    private Set<String> runScan() {
+        return runScan(ScanOptions.DEFAULT);
+    }
+
+    private Set<String> runScan(ScanOptions options) {
+        return new TreeSet<>(scanInOrder(options));
+    }
+
+    /**
+     * Runs the scan like the tool window does, on a background thread without a read action.
+     *
+     * @return Member key and suggested visibility of every result, in the order the scan found them.
+     */
+    private List<String> scanInOrder(ScanOptions options) {
+        ProgressIndicator indicator = new EmptyProgressIndicator();
+        List<VisibilityResult> results = Collections.synchronizedList(new ArrayList<>());
+        Future<?> future = ApplicationManager.getApplication().executeOnPooledThread(() ->
+                ProgressManager.getInstance().runProcess(() -> results.addAll(MinimalVisibilityScanHelper.runScan(
+                        getProject(), VisibilitySettings.DEFAULT, options, new ScanStatistics(), indicator)),
+                        indicator));
+        PlatformTestUtil.waitForFuture(future, TimeUnit.MINUTES.toMillis(1));
+
+        List<String> found = new ArrayList<>();
+        for (VisibilityResult result : results) {
+            found.add(MemberKey.of(result.member()) + " -> " + result.newVisibility());
+        }
+        return found;
+    }
+}
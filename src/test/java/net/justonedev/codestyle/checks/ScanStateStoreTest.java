@@ -0,0 +1,132 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Saves a scan and loads it again, like closing and reopening the project does.
+ */
+public class ScanStateStoreTest extends LightJavaCodeInsightFixtureTestCase {
+    private static final VisibilitySettings SETTINGS = new VisibilitySettings(
+            VisibilitySettings.PackagePrivateStatus.NEVER, VisibilitySettings.ProtectedStatus.USE);
+
+    private ScanStateStore store;
+    private PsiClass psiClass;
+    private List<VisibilityResult> results;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        store = new ScanStateStore(getProject());
+        psiClass = ((PsiJavaFile) myFixture.addFileToProject("a/A.java", """
+                package a;
+                public class A {
+                    public int count;
+                    public void foo() {}
+                    public void foo(int value) {}
+                }
+                """)).getClasses()[0];
+        results = List.of(
+                VisibilityResult.of(psiClass, psiClass.findFieldByName("count", false),
+                        Visibility.PUBLIC, Visibility.PRIVATE),
+                VisibilityResult.of(psiClass, psiClass.findMethodsByName("foo", false)[1],
+                        Visibility.PUBLIC, Visibility.PACKAGE_PRIVATE));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            store.delete();
+        } catch (Throwable e) {
+            addSuppressedException(e);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testRoundTripGivesTheSameScan() throws Exception {
+        store.save(savedScan(), newGraph());
+        ScanStateStore.SavedScan loaded = store.load(newGraph());
+
+        assertEquals(SETTINGS, loaded.settings());
+        assertEquals(storedResults(), loaded.results());
+        for (int i = 0; i < results.size(); i++) {
+            ScanStateStore.StoredResult stored = loaded.results().get(i);
+            assertFalse(stored.isStale());
+            VisibilityResult resolved = stored.resolve(getProject());
+            assertNotNull(resolved);
+            assertEquals(results.get(i).memberKey(), resolved.memberKey());
+            assertEquals(results.get(i).oldVisibility(), resolved.oldVisibility());
+            assertEquals(results.get(i).newVisibility(), resolved.newVisibility());
+            assertEquals(results.get(i).diskTimeStamp(), resolved.diskTimeStamp());
+        }
+
+        ScanCheckpoint checkpoint = loaded.checkpoint();
+        assertNotNull(checkpoint);
+        assertEquals(Duration.ofMinutes(1), checkpoint.getTimeBudget());
+        assertFalse(checkpoint.isComplete());
+        assertEquals(hierarchyEntries(), checkpoint.getHierarchyEntries(MemberKey.ofClass(psiClass)));
+        assertEmpty(checkpoint.dropChangedFiles());
+    }
+
+    public void testChangedFileOnDiskMakesRowsStale() throws Exception {
+        store.save(savedScan(), newGraph());
+        VirtualFile file = psiClass.getContainingFile().getVirtualFile();
+        String text = VfsUtil.loadText(file);
+        WriteAction.run(() -> VfsUtil.saveText(file, text + "\n// edited\n"));
+
+        ScanStateStore.SavedScan loaded = store.load(newGraph());
+        for (ScanStateStore.StoredResult stored : loaded.results()) {
+            assertTrue(stored.isStale());
+            // Found again, but still with the disk state of the saved row
+            VisibilityResult resolved = stored.resolve(getProject());
+            assertNotNull(resolved);
+            assertFalse(ScanStateStore.isUnchanged(file, resolved.diskTimeStamp(), resolved.diskLength()));
+        }
+
+        ScanCheckpoint checkpoint = loaded.checkpoint();
+        assertEquals(Set.of(file), checkpoint.dropChangedFiles());
+        assertEquals(0, checkpoint.getDoneClassCount());
+        assertNull(checkpoint.getHierarchyEntries(MemberKey.ofClass(psiClass)));
+    }
+
+    public void testNothingSavedLoadsEmpty() throws Exception {
+        assertSame(ScanStateStore.SavedScan.EMPTY, store.load(newGraph()));
+    }
+
+    private ScanStateStore.SavedScan savedScan() {
+        ScanCheckpoint checkpoint = new ScanCheckpoint(Duration.ofMinutes(1));
+        checkpoint.markDone(MemberKey.ofClass(psiClass), psiClass.getContainingFile().getVirtualFile(),
+                hierarchyEntries());
+        return new ScanStateStore.SavedScan(SETTINGS, storedResults(), checkpoint);
+    }
+
+    private List<ScanStateStore.StoredResult> storedResults() {
+        List<ScanStateStore.StoredResult> stored = new ArrayList<>();
+        for (VisibilityResult result : results) {
+            stored.add(ScanStateStore.StoredResult.of(result));
+        }
+        return stored;
+    }
+
+    private List<ClassHierarchySnapshot.ClassEntry> hierarchyEntries() {
+        PsiMember foo = psiClass.findMethodsByName("foo", false)[0];
+        return List.of(new ClassHierarchySnapshot.ClassEntry(MemberKey.ofClass(psiClass),
+                List.of("java.lang.Object"), Set.of(MemberKey.of(foo))));
+    }
+
+    private UsageGraph newGraph() {
+        return new UsageGraph(getProject(), GlobalSearchScope.projectScope(getProject()));
+    }
+}
@@ -0,0 +1,139 @@
+package net.justonedev.codestyle.checks;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiMember;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the index arrays of the table: sort order, filter and groups, also when rows are added to a sorted table.
+ */
+public class VisibilityTableModelTest extends LightJavaCodeInsightFixtureTestCase {
+    private static final int CLASS_COLUMN = 0;
+    private static final int MEMBER_COLUMN = 1;
+
+    private List<VisibilityResult> results;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        PsiClass first = ((PsiJavaFile) myFixture.addFileToProject("p/First.java", """
+                package p;
+                public class First {
+                    public void zeta() {}
+                    public void alpha() {}
+                    public int count;
+                }
+                """)).getClasses()[0];
+        PsiClass second = ((PsiJavaFile) myFixture.addFileToProject("q/Second.java", """
+                package q;
+                public class Second {
+                    protected void beta() {}
+                    public void gamma() {}
+                }
+                """)).getClasses()[0];
+        // In the order a scan would find them
+        results = List.of(
+                result(first, first.findMethodsByName("zeta", false)[0], Visibility.PRIVATE),
+                result(first, first.findMethodsByName("alpha", false)[0], Visibility.PACKAGE_PRIVATE),
+                result(first, first.findFieldByName("count", false), Visibility.PRIVATE),
+                result(second, second.findMethodsByName("beta", false)[0], Visibility.PRIVATE),
+                result(second, second.findMethodsByName("gamma", false)[0], Visibility.PRIVATE));
+    }
+
+    public void testUnsortedRowsKeepFoundOrder() {
+        VisibilityTableModel model = new VisibilityTableModel();
+        model.setResults(results);
+        assertEquals(List.of("zeta()", "alpha()", "count", "beta()", "gamma()"), rows(model));
+    }
+
+    public void testSortByMemberAndReverse() {
+        VisibilityTableModel model = new VisibilityTableModel();
+        model.setResults(results);
+        model.sortBy(MEMBER_COLUMN);
+        assertEquals(List.of("alpha()", "beta()", "count", "gamma()", "zeta()"), rows(model));
+        model.sortBy(MEMBER_COLUMN);
+        assertEquals(List.of("zeta()", "gamma()", "count", "beta()", "alpha()"), rows(model));
+    }
+
+    public void testEqualRowsKeepFoundOrderInBothDirections() {
+        VisibilityTableModel model = new VisibilityTableModel();
+        model.setResults(results);
+        model.sortBy(CLASS_COLUMN);
+        assertEquals(List.of("zeta()", "alpha()", "count", "beta()", "gamma()"), rows(model));
+        model.sortBy(CLASS_COLUMN);
+        assertEquals(List.of("beta()", "gamma()", "zeta()", "alpha()", "count"), rows(model));
+    }
+
+    public void testAddedRowsAreMergedIntoSortedAndFilteredRows() {
+        VisibilityTableModel model = new VisibilityTableModel();
+        model.sortBy(MEMBER_COLUMN);
+        model.setFilter("a");
+        model.setResults(results.subList(0, 3));
+        model.addResults(results.subList(3, 5));
+        // count has no "a" in its class or member name
+        assertEquals(List.of("alpha()", "beta()", "gamma()", "zeta()"), rows(model));
+        assertEquals(5, model.getResults().size());
+
+        model.setFilter("");
+        assertEquals(List.of("alpha()", "beta()", "count", "gamma()", "zeta()"), rows(model));
+    }
+
+    public void testFilterNarrowsAndWidens() {
+        VisibilityTableModel model = new VisibilityTableModel();
+        model.setResults(results);
+        model.setFilter("ta");
+        assertEquals(List.of("zeta()", "beta()"), rows(model));
+        model.setFilter("eta");
+        assertEquals(List.of("zeta()", "beta()"), rows(model));
+        // Shorter again, rows filtered out before match now
+        model.setFilter("a");
+        assertEquals(List.of("zeta()", "alpha()", "beta()", "gamma()"), rows(model));
+        model.setFilter("second");
+        assertEquals(List.of("beta()", "gamma()"), rows(model));
+    }
+
+    public void testGroupByPackageAndCollapse() {
+        VisibilityTableModel model = new VisibilityTableModel();
+        model.setResults(results);
+        model.sortBy(MEMBER_COLUMN);
+        model.setGroupBy(VisibilityTableModel.GroupBy.PACKAGE);
+        assertEquals(List.of("▼ p (3)", "alpha()", "count", "zeta()", "▼ q (2)", "beta()", "gamma()"), rows(model));
+
+        model.toggleGroup(0);
+        assertEquals(List.of("▶ p (3)", "▼ q (2)", "beta()", "gamma()"), rows(model));
+        // Collapsed rows still count as visible, e.g. for Apply All
+        assertEquals(5, model.getVisibleResults().size());
+
+        model.setFilter("ta");
+        assertEquals(List.of("▶ p (1)", "▼ q (1)", "beta()"), rows(model));
+        model.toggleGroup(0);
+        assertEquals(List.of("▼ p (1)", "zeta()", "▼ q (1)", "beta()"), rows(model));
+    }
+
+    public void testRemovedRowsLeaveTheRestInOrder() {
+        VisibilityTableModel model = new VisibilityTableModel();
+        model.setResults(results);
+        model.sortBy(MEMBER_COLUMN);
+        model.removeResults(List.of(results.get(1), results.get(4)));
+        assertEquals(List.of("beta()", "count", "zeta()"), rows(model));
+    }
+
+    private static VisibilityResult result(PsiClass psiClass, PsiMember member, Visibility newVisibility) {
+        return VisibilityResult.of(psiClass, member, Visibility.fromModifierListOwner(member), newVisibility);
+    }
+
+    /**
+     * Member names of the rows as the table shows them, and the text of group header rows.
+     */
+    private static List<String> rows(VisibilityTableModel model) {
+        List<String> rows = new ArrayList<>();
+        for (int row = 0; row < model.getRowCount(); row++) {
+            rows.add((String) model.getValueAt(row, model.isGroupRow(row) ? CLASS_COLUMN : MEMBER_COLUMN));
+        }
+        return rows;
+    }
+}